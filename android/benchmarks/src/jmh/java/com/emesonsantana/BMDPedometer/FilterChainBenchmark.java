@@ -0,0 +1,88 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link FilterChain} and the peak engine behind it on bursts of
+ * {@link #BURST} samples of the 50 Hz walking trace, the way StepService
+ * runs them; reported per sample, so the chains compare to no filters at
+ * all. The trace is looped like in {@link StepDetectorBenchmark}.
+ */
+@State(Scope.Thread)
+public class FilterChainBenchmark {
+    private final static int BURST = 50;
+
+    @Param({"", "decimate:4", "lowpass:3,decimate:4", "magnitude,lowpass:3,decimate:4"})
+    public String filters;
+
+    private long[] timeNs;
+    private float[] xyz;
+    private int size;
+    private long duration;
+    private FilterChain chain;
+    private StepEngine engine;
+    private int index;
+    private long offset;
+    private final long[] burstTimeNs = new long[BURST];
+    private final float[] burstXyz = new float[BURST * 3];
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        SensorTrace sensorTrace = SensorTrace.wrap(ByteBuffer.wrap(
+                StepDetectorBenchmark.read("/traces/walk-50hz.bin")));
+        timeNs = new long[1024];
+        xyz = new float[1024 * 3];
+        while (sensorTrace.next()) {
+            if (sensorTrace.getType() != 1) continue; // TYPE_ACCELEROMETER
+            if (size == timeNs.length) {
+                timeNs = Arrays.copyOf(timeNs, size * 2);
+                xyz = Arrays.copyOf(xyz, size * 6);
+            }
+            float[] values = sensorTrace.getValues();
+            timeNs[size] = sensorTrace.getTimestamp();
+            xyz[size * 3] = values[0];
+            xyz[size * 3 + 1] = values[1];
+            xyz[size * 3 + 2] = values[2];
+            size++;
+        }
+        size -= size % BURST;
+        duration = timeNs[size - 1] - timeNs[0] + (timeNs[1] - timeNs[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        chain = FilterChain.parse(filters);
+        engine = StepEngines.create(StepEngines.PEAK);
+        index = 0;
+        offset = 0;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int burst() {
+        int i = index;
+        for (int k = 0; k < BURST; k++) {
+            burstTimeNs[k] = timeNs[i + k] + offset;
+        }
+        System.arraycopy(xyz, i * 3, burstXyz, 0, BURST * 3);
+        int n = chain.process(burstTimeNs, burstXyz, BURST);
+        int steps = engine.updateAccelBatch(burstTimeNs, burstXyz, n);
+        i += BURST;
+        if (i == size) {
+            i = 0;
+            offset += duration;
+        }
+        index = i;
+        return steps;
+    }
+}
@@ -0,0 +1,56 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * The vector operations of {@link SensorFusionMath}; {@link #sum} on an
+ * array the size of the accelerometer ring of {@link StepDetector}.
+ */
+@State(Scope.Thread)
+public class SensorFusionMathBenchmark {
+
+    private float[] ring;
+    private float[] a;
+    private float[] b;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ring = new float[50];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = (float) random.nextGaussian() * 10;
+        }
+        a = new float[]{random.nextFloat(), random.nextFloat(), 9.81f};
+        b = new float[]{random.nextFloat(), 9.81f, random.nextFloat()};
+    }
+
+    @Benchmark
+    public float sum() {
+        return SensorFusionMath.sum(ring);
+    }
+
+    @Benchmark
+    public float norm() {
+        return SensorFusionMath.norm(a);
+    }
+
+    @Benchmark
+    public float dot() {
+        return SensorFusionMath.dot(a, b);
+    }
+
+    @Benchmark
+    public float[] cross() {
+        return SensorFusionMath.cross(a, b);
+    }
+
+    @Benchmark
+    public float[] normalize() {
+        return SensorFusionMath.normalize(a);
+    }
+}
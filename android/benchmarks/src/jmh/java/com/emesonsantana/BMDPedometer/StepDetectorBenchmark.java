@@ -0,0 +1,92 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * {@link StepDetector#updateAccel} on the accelerometer samples of the
+ * synthetic test traces, one sample per op. The trace is looped, its
+ * timestamps moved on by its length each time around.
+ */
+@State(Scope.Thread)
+public class StepDetectorBenchmark {
+
+    @Param({"walk-50hz", "run-50hz", "idle-50hz"})
+    public String trace;
+
+    private long[] timeNs;
+    private float[] xyz;
+    private int size;
+    private long duration;
+    private StepDetector detector;
+    private int index;
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        SensorTrace sensorTrace = SensorTrace.wrap(ByteBuffer.wrap(read("/traces/" + trace + ".bin")));
+        timeNs = new long[1024];
+        xyz = new float[1024 * 3];
+        while (sensorTrace.next()) {
+            if (sensorTrace.getType() != 1) continue; // TYPE_ACCELEROMETER
+            if (size == timeNs.length) {
+                timeNs = Arrays.copyOf(timeNs, size * 2);
+                xyz = Arrays.copyOf(xyz, size * 6);
+            }
+            float[] values = sensorTrace.getValues();
+            timeNs[size] = sensorTrace.getTimestamp();
+            xyz[size * 3] = values[0];
+            xyz[size * 3 + 1] = values[1];
+            xyz[size * 3 + 2] = values[2];
+            size++;
+        }
+        duration = timeNs[size - 1] - timeNs[0] + (timeNs[1] - timeNs[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        detector = new StepDetector();
+        index = 0;
+        offset = 0;
+    }
+
+    @Benchmark
+    public int updateAccel() {
+        int i = index;
+        int steps = detector.updateAccel(timeNs[i] + offset, xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
+        if (++i == size) {
+            i = 0;
+            offset += duration;
+        }
+        index = i;
+        return steps;
+    }
+
+    static byte[] read(final String resource) throws IOException {
+        InputStream in = StepDetectorBenchmark.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("missing resource " + resource);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
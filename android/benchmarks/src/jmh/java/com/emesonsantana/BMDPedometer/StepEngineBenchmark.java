@@ -0,0 +1,83 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * {@link StepEngine#updateAccelBatch} of each engine on the accelerometer
+ * samples of the synthetic test traces, one sample per op, for the ns per
+ * sample next to the accuracy of {@code EngineAccuracyTest}. The trace is
+ * looped like in {@link StepDetectorBenchmark}.
+ */
+@State(Scope.Thread)
+public class StepEngineBenchmark {
+
+    @Param({StepEngines.VELOCITY, StepEngines.PEAK})
+    public String engine;
+
+    @Param({"walk-50hz", "gentle-50hz", "idle-50hz", "walk-16hz-batched", "walk-5hz-batched"})
+    public String trace;
+
+    private long[] timeNs;
+    private float[] xyz;
+    private int size;
+    private long duration;
+    private StepEngine stepEngine;
+    private int index;
+    private long offset;
+    private final long[] sampleTime = new long[1];
+    private final float[] sampleValues = new float[3];
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        SensorTrace sensorTrace = SensorTrace.wrap(ByteBuffer.wrap(
+                StepDetectorBenchmark.read("/traces/" + trace + ".bin")));
+        timeNs = new long[1024];
+        xyz = new float[1024 * 3];
+        while (sensorTrace.next()) {
+            if (sensorTrace.getType() != 1) continue; // TYPE_ACCELEROMETER
+            if (size == timeNs.length) {
+                timeNs = Arrays.copyOf(timeNs, size * 2);
+                xyz = Arrays.copyOf(xyz, size * 6);
+            }
+            float[] values = sensorTrace.getValues();
+            timeNs[size] = sensorTrace.getTimestamp();
+            xyz[size * 3] = values[0];
+            xyz[size * 3 + 1] = values[1];
+            xyz[size * 3 + 2] = values[2];
+            size++;
+        }
+        duration = timeNs[size - 1] - timeNs[0] + (timeNs[1] - timeNs[0]);
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        stepEngine = StepEngines.create(engine);
+        index = 0;
+        offset = 0;
+    }
+
+    @Benchmark
+    public int updateAccelBatch() {
+        int i = index;
+        sampleTime[0] = timeNs[i] + offset;
+        sampleValues[0] = xyz[i * 3];
+        sampleValues[1] = xyz[i * 3 + 1];
+        sampleValues[2] = xyz[i * 3 + 2];
+        int steps = stepEngine.updateAccelBatch(sampleTime, sampleValues, 1);
+        if (++i == size) {
+            i = 0;
+            offset += duration;
+        }
+        index = i;
+        return steps;
+    }
+}
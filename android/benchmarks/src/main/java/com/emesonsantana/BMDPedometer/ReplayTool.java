@@ -0,0 +1,86 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Replays {@link SensorTrace} files with the {@link SensorTraceReplay} of
+ * the unit tests:
+ * <pre>
+ * gradle -p android/benchmarks replay --args="[-e engine] [-f filters] [-n runs] [-b] trace..."
+ * </pre>
+ * Prints the steps found and the time spent per sample of each trace. -e
+ * picks the {@link StepEngines step engine}, -f the {@link FilterChain}
+ * in front of it, with -n each trace is replayed that often and the fastest
+ * run is reported, -b also prints the steps per minute.
+ */
+public class ReplayTool {
+
+    public static void main(final String[] args) throws IOException {
+        int runs = 1;
+        String engine = StepEngines.DEFAULT;
+        String filters = "";
+        boolean printBuckets = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if ("-n".equals(args[i]) && i + 1 < args.length) {
+                runs = Math.max(1, Integer.parseInt(args[++i]));
+            } else if ("-e".equals(args[i]) && i + 1 < args.length) {
+                engine = args[++i];
+            } else if ("-f".equals(args[i]) && i + 1 < args.length) {
+                filters = args[++i];
+            } else if ("-b".equals(args[i])) {
+                printBuckets = true;
+            } else {
+                System.err.println("unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        if (i == args.length) {
+            System.err.println("usage: replay [-e engine] [-f filters] [-n runs] [-b] trace...");
+            System.exit(2);
+        }
+        try {
+            StepEngines.check(engine, FilterChain.parse(filters));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US);
+        for (; i < args.length; i++) {
+            SensorTraceReplay result = null;
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                SensorTrace trace = SensorTrace.open(new File(args[i]));
+                SensorTraceReplay replay = new SensorTraceReplay(engine, filters);
+                long start = System.nanoTime();
+                replay.replay(trace);
+                long nanos = System.nanoTime() - start;
+                if (nanos < best) {
+                    best = nanos;
+                    result = replay;
+                }
+            }
+            long duration = result.lastTimestamp - result.firstTimestamp;
+            System.out.println(String.format(Locale.US,
+                    "%s: %d steps (%s engine, step detector events %d)%n" +
+                            "  %d events, %d accelerometer samples in %d bursts over %.1f s%n" +
+                            "  %.3f ms, %.1f ns/event, bursts %.1f ns/sample, %.0fx real time",
+                    args[i], result.steps, engine, result.stepDetectorEvents,
+                    result.events, result.samples, result.bursts, duration / 1e9,
+                    best / 1e6, result.events > 0 ? best / (double) result.events : 0,
+                    result.samples > 0 ? result.processNanos / (double) result.samples : 0,
+                    best > 0 ? duration / (double) best : 0));
+            if (printBuckets) {
+                long[] times = result.buckets.getTimes();
+                int[] steps = result.buckets.getSteps();
+                for (int b = 0; b < times.length; b++) {
+                    System.out.println("  " + format.format(new Date(times[b])) + "\t" + steps[b]);
+                }
+            }
+        }
+    }
+}
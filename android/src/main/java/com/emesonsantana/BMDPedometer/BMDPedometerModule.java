@@ -1,24 +1,44 @@
 package com.emesonsantana.BMDPedometer;
 
+import android.app.AlarmManager;
+import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.emesonsantana.BMDPedometer.util.Database;
-
+import com.emesonsantana.BMDPedometer.util.Diagnostics;
+import com.emesonsantana.BMDPedometer.util.Logger;
 import com.emesonsantana.BMDPedometer.util.Utility;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import static android.content.Context.SENSOR_SERVICE;
 
-public class BMDPedometerModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+public class BMDPedometerModule extends ReactContextBaseJavaModule implements LifecycleEventListener, StepBus.Listener {
 
   ReactApplicationContext reactContext;
 
@@ -28,7 +48,13 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
   public static final int ERROR_FAILED_TO_START = 3;
   public static final int ERROR_NO_SENSOR_FOUND = 4;
 
+  private final static int QUERY_QUEUE_SIZE = 8;
+  // longest time a query waits for the sensor FIFO to be flushed
+  private final static long FLUSH_TIMEOUT = 1000;
+
   private int status;     // status of listener
+  private boolean listening; // a JS listener is attached
+  private boolean resumed;   // the host is in the foreground
 
   public long startTimeStamp;
   private SensorManager sensorManager; // Sensor manager
@@ -36,6 +62,23 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
   private Intent serviceIntent;
   private StepReceiver stepReceiver;
 
+  // queries run one at a time off the native modules thread, in-flight ones by id
+  private final ThreadPoolExecutor queryExecutor = new ThreadPoolExecutor(1, 1,
+          30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUERY_QUEUE_SIZE));
+  private final ConcurrentHashMap<String, Query> queries = new ConcurrentHashMap<>();
+
+  // batched delivery: updates are collected for batchInterval ms and sent as one
+  // array of [time offset, step delta] pairs, 0 sends every update on its own
+  private long batchInterval;
+  private final Handler batchHandler = new Handler(Looper.getMainLooper());
+  private final StepBatch batch = new StepBatch();
+  private final Runnable batchFlush = new Runnable() {
+    @Override
+    public void run() {
+      sendPedometerUpdateBatch();
+    }
+  };
+
   public BMDPedometerModule(ReactApplicationContext reactContext) {
     super(reactContext);
     this.reactContext = reactContext;
@@ -44,6 +87,9 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
     this.sensorManager = (SensorManager) this.reactContext.getSystemService(SENSOR_SERVICE);
     this.database = Database.getInstance(reactContext);
     this.serviceIntent = new Intent(reactContext, StepService.class);
+    this.queryExecutor.allowCoreThreadTimeOut(true);
+    // updates come in through the StepBus, the receiver only catches a service in another process
+    StepBus.subscribe(this);
     stepReceiver = new StepReceiver(this);
     stepReceiver.register();
   }
@@ -87,17 +133,41 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
 
   @ReactMethod
   // using double here because react does not support long params, but unix time stamps are long which do not fit in int
-  public void startPedometerUpdatesFromDate(double date) {
+  public void startPedometerUpdatesFromDate(double date, ReadableMap options, Promise promise) {
     if (this.status != BMDPedometerModule.RUNNING) {
+      String engine = options.hasKey("engine") ? options.getString("engine") : StepEngines.DEFAULT;
+      String filters = options.hasKey("filters") ? options.getString("filters") : "";
+      try {
+        StepEngines.check(engine, FilterChain.parse(filters));
+      } catch (IllegalArgumentException e) {
+        promise.reject("E_INVALID_OPTIONS", e.getMessage(), e);
+        return;
+      }
       this.startTimeStamp = (long)date;
+      this.setBatchInterval(options.hasKey("batchInterval") ? (long)options.getDouble("batchInterval") : 0);
+      // rate limits for the updates, picked up by the service when it is started
+      this.reactContext.getSharedPreferences("pedometer", Context.MODE_PRIVATE).edit()
+              .putLong(StepService.PREF_UPDATE_INTERVAL,
+                      options.hasKey("updateInterval") ? (long)options.getDouble("updateInterval") : 0)
+              .putInt(StepService.PREF_UPDATE_STEPS,
+                      options.hasKey("updateSteps") ? options.getInt("updateSteps") : 1)
+              .putString(StepService.PREF_STEP_ENGINE, engine)
+              .putString(StepService.PREF_FILTERS, filters)
+              .apply();
       // seed the result in case the device records no steps soon
-      this.sendPedometerUpdateEvent(numberOfStepsSinceAppStarted());
+      this.seedPedometerUpdate();
+      this.listening = true;
       this.start();
     }
+    promise.resolve(null);
   }
 
   @ReactMethod
   public void stopPedometerUpdates() {
+    if (this.listening) {
+      this.listening = false;
+      this.updateLive();
+    }
     if (this.status == BMDPedometerModule.RUNNING) {
       this.stop();
     }
@@ -105,29 +175,170 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
 
   @ReactMethod
   // using double here because react does not support long params, but unix time stamps are long which do not fit in int
-  public void queryPedometerDataBetweenDates(double startDate, double endDate, Callback callback) {
-    try {
-      StepContract step = new StepContract((long)startDate);
-      step.numberOfSteps = this.database.getSteps((long)startDate, (long)endDate);
-      callback.invoke(null, step.getMap());
-    } catch(Exception e) {
-      callback.invoke(e.getMessage(), null);
+  public void queryPedometerDataBetweenDates(final double startDate, final double endDate, String queryId,
+                                             Promise promise) {
+    runQuery(queryId, promise, new Callable<WritableMap>() {
+      @Override
+      public WritableMap call() {
+        StepContract step = new StepContract((long)startDate);
+        // steps recorded per bucket answer exactly, older history only per day
+        flushPendingSteps();
+        if ((long)startDate >= database.getFirstBucket()) {
+          step.numberOfSteps = database.getBucketSteps((long)startDate, (long)endDate);
+        } else {
+          step.numberOfSteps = database.getSteps((long)startDate, (long)endDate);
+        }
+        return step.getMap();
+      }
+    });
+  }
+
+  @ReactMethod
+  // resolution is "hour", "day", "week" or "month", hours are only available since steps are recorded per bucket
+  public void querySeriesBetweenDates(final double startDate, final double endDate, final String resolution,
+                                      String queryId, Promise promise) {
+    runQuery(queryId, promise, new Callable<WritableMap>() {
+      @Override
+      public WritableMap call() {
+        flushPendingSteps();
+        long start;
+        int[] series;
+        int today = -1; // index of the interval with today's offset entry, if any
+        if ("hour".equals(resolution)) {
+          start = Utility.getHour((long)startDate);
+          series = database.getBucketSeries(start, (long)endDate, AlarmManager.INTERVAL_HOUR);
+        } else if ("day".equals(resolution)) {
+          start = Utility.getDay((long)startDate);
+          series = database.getDaySeries(start, (long)endDate);
+          today = (int) Math.round((Utility.getToday() - start) / (double) AlarmManager.INTERVAL_DAY);
+        } else if ("week".equals(resolution)) {
+          start = Utility.getWeek((long)startDate);
+          series = database.getWeekSeries(start, (long)endDate);
+          today = (int) Math.round((Utility.getWeek(Utility.getToday()) - start) /
+                  (double) (7 * AlarmManager.INTERVAL_DAY));
+        } else if ("month".equals(resolution)) {
+          start = Utility.getMonth((long)startDate);
+          series = database.getMonthSeries(start, (long)endDate);
+          Calendar from = Calendar.getInstance();
+          from.setTimeInMillis(start);
+          Calendar to = Calendar.getInstance();
+          to.setTimeInMillis(Utility.getToday());
+          today = (to.get(Calendar.YEAR) - from.get(Calendar.YEAR)) * 12 +
+                  to.get(Calendar.MONTH) - from.get(Calendar.MONTH);
+        } else {
+          throw new IllegalArgumentException("Error: unknown resolution " + resolution);
+        }
+        // todays entry is the offset to the current steps
+        if (today >= 0 && today < series.length && database.getSteps(Utility.getToday()) != Integer.MIN_VALUE) {
+          series[today] += database.getCurrentSteps();
+        }
+        WritableArray steps = Arguments.createArray();
+        for (int i = 0; i < series.length; i++) {
+          steps.pushInt(series[i]);
+        }
+        WritableMap map = Arguments.createMap();
+        map.putDouble("startDate", start);
+        map.putString("resolution", resolution);
+        map.putArray("steps", steps);
+        return map;
+      }
+    });
+  }
+
+  @ReactMethod
+  public void cancelQuery(String queryId) {
+    Query query = queries.get(queryId);
+    if (query != null) {
+      query.cancel(false);
     }
+  }
+
+  @ReactMethod
+  // collection starts over whenever it is enabled and stays on across service restarts
+  public void setDiagnosticsEnabled(boolean enabled) {
+    Diagnostics.setEnabled(enabled);
+    this.reactContext.getSharedPreferences("pedometer", Context.MODE_PRIVATE).edit()
+            .putBoolean(StepService.PREF_DIAGNOSTICS, enabled)
+            .apply();
+  }
 
+  @ReactMethod
+  // logs the service's decisions to logcat in release builds too, stays on across service restarts
+  public void setTracing(boolean enabled) {
+    Logger.setTracing(enabled);
+    this.reactContext.getSharedPreferences("pedometer", Context.MODE_PRIVATE).edit()
+            .putBoolean(StepService.PREF_TRACING, enabled)
+            .apply();
   }
 
   @ReactMethod
-  public void tryAThing(Callback callback) {
-    String value = database.getLastEntries(10).toString();
-    callback.invoke(null, value);
+  // sensor events are recorded to a new trace file until recording is disabled again
+  public void setTraceRecording(boolean enabled) {
+    this.reactContext.getSharedPreferences("pedometer", Context.MODE_PRIVATE).edit()
+            .putBoolean(StepService.PREF_RECORD_TRACE, enabled)
+            .apply();
+    this.start();
+  }
+
+  @ReactMethod
+  public void getTraceFiles(Promise promise) {
+    File[] files = new File(reactContext.getFilesDir(), StepService.TRACE_DIR).listFiles();
+    WritableArray paths = Arguments.createArray();
+    if (files != null) {
+      Arrays.sort(files);
+      for (File file : files) {
+        paths.pushString(file.getAbsolutePath());
+      }
+    }
+    promise.resolve(paths);
+  }
+
+  @ReactMethod
+  public void getDiagnostics(Promise promise) {
+    long since = Diagnostics.getSince();
+    long duration = Diagnostics.isEnabled() ? System.currentTimeMillis() - since : 0;
+    WritableMap map = Arguments.createMap();
+    map.putBoolean("enabled", Diagnostics.isEnabled());
+    map.putDouble("since", since);
+    map.putDouble("duration", duration);
+    for (int i = 0; i < Diagnostics.COUNTERS.length; i++) {
+      map.putDouble(Diagnostics.COUNTERS[i], Diagnostics.getCount(i));
+    }
+    map.putDouble("sensorEventsPerSecond",
+            duration > 0 ? Diagnostics.getCount(Diagnostics.SENSOR_EVENTS) * 1000.0 / duration : 0);
+    for (int i = 0; i < Diagnostics.HISTOGRAMS.length; i++) {
+      long[] buckets = Diagnostics.getBuckets(i);
+      long count = 0;
+      WritableArray counts = Arguments.createArray();
+      for (long bucket : buckets) {
+        counts.pushDouble(bucket);
+        count += bucket;
+      }
+      WritableMap histogram = Arguments.createMap();
+      histogram.putDouble("count", count);
+      histogram.putDouble("mean", count > 0 ? Diagnostics.getSum(i) / (double) count : 0);
+      histogram.putDouble("max", Diagnostics.getMax(i));
+      histogram.putArray("buckets", counts);
+      map.putMap(Diagnostics.HISTOGRAMS[i], histogram);
+    }
+    map.putDouble("droppedLogMessages", Logger.getDropped());
+    promise.resolve(map);
   }
 
   @Override
   public void onHostResume() {
+    this.resumed = true;
+    if (this.listening) {
+      this.updateLive();
+    }
   }
 
   @Override
   public void onHostPause() {
+    this.resumed = false;
+    if (this.listening) {
+      this.updateLive();
+    }
   }
 
   @Override
@@ -135,13 +346,33 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
     this.stop();
   }
 
+  @Override
+  public void onCatalystInstanceDestroy() {
+    StepBus.unsubscribe(this);
+    this.reactContext.unregisterReceiver(stepReceiver);
+  }
+
+  @Override
+  public void onSteps(int steps) {
+    this.sendPedometerUpdateEvent(steps);
+  }
+
   /**
    * Start listening for pedometers sensor.
    */
   private void start() {
+    serviceIntent.putExtra(StepService.EXTRA_LIVE, this.listening && this.resumed);
     reactContext.startService(serviceIntent);
   }
 
+  /**
+   * Let the service know whether updates are watched live: low latency while
+   * they are, maximum hardware batching once the app is backgrounded.
+   */
+  private void updateLive() {
+    this.start();
+  }
+
   /**
    * Stop listening to sensor.
    */
@@ -150,6 +381,40 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
       //this.setStatus(BMDPedometerModule.STOPPED);
   }
 
+  /**
+   * Drains the sensor FIFO and writes everything pending, so queries see the
+   * latest steps. Blocks, call it on the query executor only.
+   */
+  private void flushPendingSteps() {
+    StepService.flush(FLUSH_TIMEOUT);
+    StepWriter.getInstance(reactContext).flushNow();
+  }
+
+  private void seedPedometerUpdate() {
+    try {
+      queryExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          flushPendingSteps();
+          sendPedometerUpdateEvent(numberOfStepsSinceAppStarted());
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      sendPedometerUpdateEvent(numberOfStepsSinceAppStarted());
+    }
+  }
+
+  private void runQuery(String queryId, Promise promise, Callable<WritableMap> callable) {
+    Query query = new Query(queryId, promise, callable);
+    queries.put(queryId, query);
+    try {
+      queryExecutor.execute(query);
+    } catch (RejectedExecutionException e) {
+      queries.remove(queryId, query);
+      promise.reject("E_QUERY_REJECTED", "Error: too many queries in flight", e);
+    }
+  }
+
   private void setStatus(int status) {
     this.status = status;
   }
@@ -168,15 +433,84 @@ public class BMDPedometerModule extends ReactContextBaseJavaModule implements Li
 
   public int numberOfStepsSinceAppStarted()
   {
-    return database.getCurrentSteps() + database.getSteps(Utility.getToday());
+    return Utility.getTodaySteps(database.getCurrentSteps(), database.getSteps(Utility.getToday()));
+  }
+
+  private synchronized void setBatchInterval(long batchInterval) {
+    this.batchInterval = Math.max(0, batchInterval);
+    this.batch.reset();
+    this.batchHandler.removeCallbacks(batchFlush);
   }
 
+  /**
+   * @param stepCount today's steps, like the totals of {@link StepService}
+   */
   public void sendPedometerUpdateEvent(int stepCount) {
+    synchronized (this) {
+      if (this.batchInterval > 0) {
+        if (batch.add(System.currentTimeMillis(), stepCount)) {
+          batchHandler.postDelayed(batchFlush, batchInterval);
+        }
+        return;
+      }
+    }
     StepContract step = new StepContract(this.startTimeStamp);
     step.numberOfSteps = stepCount;
     WritableMap params = step.getMap();
     this.reactContext
             .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
             .emit("pedometerDataDidUpdate", params);
+    Diagnostics.count(Diagnostics.JS_EMITS);
+  }
+
+  private synchronized void sendPedometerUpdateBatch() {
+    if (batch.size() == 0) {
+      return;
+    }
+    WritableArray deltas = Arguments.createArray();
+    for (int i = 0; i < batch.size(); i++) {
+      deltas.pushInt((int) (batch.getTime(i) - batch.getTime()));
+      deltas.pushInt(batch.getDelta(i));
+    }
+    WritableMap params = Arguments.createMap();
+    params.putDouble("startDate", this.startTimeStamp);
+    params.putDouble("time", batch.getTime());
+    params.putInt("numberOfSteps", batch.getTotal());
+    params.putArray("deltas", deltas);
+    batch.clear();
+    this.reactContext
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit("pedometerDataDidUpdateBatch", params);
+    Diagnostics.count(Diagnostics.JS_EMITS);
+  }
+
+  /**
+   * A query on the query executor, settling its promise when done or cancelled.
+   */
+  private class Query extends FutureTask<WritableMap> {
+    private final String id;
+    private final Promise promise;
+
+    Query(String id, Promise promise, Callable<WritableMap> callable) {
+      super(callable);
+      this.id = id;
+      this.promise = promise;
+    }
+
+    @Override
+    protected void done() {
+      queries.remove(id, this);
+      if (isCancelled()) {
+        promise.reject("E_QUERY_CANCELLED", "Error: query " + id + " was cancelled");
+        return;
+      }
+      try {
+        promise.resolve(get());
+      } catch (ExecutionException e) {
+        promise.reject("E_QUERY_FAILED", e.getCause().getMessage(), e.getCause());
+      } catch (InterruptedException e) {
+        promise.reject("E_QUERY_FAILED", e.getMessage(), e);
+      }
+    }
   }
 }
@@ -30,7 +30,8 @@ public class BootReceiver extends BroadcastReceiver {
         // last entry might still have a negative step value, so remove that
         // row if that's the case
         db.removeNegativeEntries();
-        db.saveCurrentSteps(0);
+        // the step counter restarted at 0 as well
+        db.saveCurrentSteps(0, 0);
         db.close();
         prefs.edit().remove("correctShutdown").apply();
 
@@ -0,0 +1,265 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * Preprocessing of accelerometer samples in front of the {@link StepEngine}.
+ * Stages work in place on the arrays of a burst, timestamps and interleaved
+ * x, y, z values as collected by StepService, and do not allocate.
+ * <p/>
+ * A chain is given as a comma separated list of stages:
+ * <ul>
+ * <li>lowpass:HZ - second order Butterworth low-pass at HZ</li>
+ * <li>decimate:N - keeps every N-th sample, low-pass first to avoid aliasing;
+ * the velocity engine counts its windows in samples and needs the full rate,
+ * see {@link StepEngines#check(String, FilterChain)}</li>
+ * <li>magnitude - replaces each sample by (0, 0, |sample|); the stages
+ * after it only work on z</li>
+ * </ul>
+ * e.g. "magnitude,lowpass:3,decimate:4" to run the peak engine on a quarter
+ * of a 50 Hz stream. There is no high-pass: both engines find gravity in
+ * the samples.
+ */
+public class FilterChain {
+
+  public interface Stage {
+    /**
+     * @param timeNs sample timestamps
+     * @param xyz    interleaved x, y, z values, 3 per sample
+     * @param n      number of samples in the arrays
+     * @return the number of samples left at the start of the arrays
+     */
+    int process(long[] timeNs, float[] xyz, int n);
+  }
+
+  private final Stage[] stages;
+
+  public FilterChain(final Stage... stages) {
+    this.stages = stages;
+  }
+
+  /**
+   * @param spec the stages as described above, null or empty for none
+   * @throws IllegalArgumentException if the spec is invalid
+   */
+  public static FilterChain parse(String spec) {
+    if (spec == null || spec.trim().isEmpty()) {
+      return new FilterChain();
+    }
+    String[] parts = spec.split(",");
+    Stage[] stages = new Stage[parts.length];
+    boolean scalar = false; // behind magnitude
+    for (int i = 0; i < parts.length; i++) {
+      String[] stage = parts[i].trim().split(":", 2);
+      String name = stage[0].trim();
+      String arg = stage.length > 1 ? stage[1].trim() : null;
+      try {
+        if ("lowpass".equals(name) && arg != null) {
+          stages[i] = new Biquad(positive(Float.parseFloat(arg)), scalar);
+        } else if ("decimate".equals(name) && arg != null) {
+          stages[i] = new Decimation((int) positive(Integer.parseInt(arg)));
+        } else if ("magnitude".equals(name) && arg == null) {
+          stages[i] = new Magnitude();
+          scalar = true;
+        } else {
+          throw new IllegalArgumentException("unknown filter stage " + parts[i]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid filter stage " + parts[i], e);
+      }
+    }
+    return new FilterChain(stages);
+  }
+
+  private static float positive(float value) {
+    if (!(value > 0)) {
+      throw new IllegalArgumentException("filter parameters must be positive");
+    }
+    return value;
+  }
+
+  /**
+   * @return true, if the chain drops samples
+   */
+  public boolean decimates() {
+    for (Stage stage : stages) {
+      if (stage instanceof Decimation) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Runs the samples through all stages.
+   *
+   * @return the number of samples left at the start of the arrays
+   */
+  public int process(long[] timeNs, float[] xyz, int n) {
+    for (int i = 0; i < stages.length && n > 0; i++) {
+      n = stages[i].process(timeNs, xyz, n);
+    }
+    return n;
+  }
+
+  /**
+   * Second order Butterworth low-pass in transposed direct form II, on each
+   * axis or, behind {@link Magnitude}, on z only. The coefficients follow
+   * the sampling rate, which is estimated from the timestamps of each burst.
+   */
+  public static class Biquad implements Stage {
+    private static final float Q = (float) (1 / Math.sqrt(2));
+    // a gap this long restarts the filter from the next sample
+    private static final long MAX_GAP_NS = 1000000000L;
+    // the coefficients are recomputed when the sampling interval drifts this far
+    private static final double MAX_RATE_CHANGE = 0.1;
+    // the sampling interval of the default sensor delay, until one is measured
+    private static final double DEFAULT_INTERVAL_NS = 200000000;
+
+    private final float cutoffHz;
+    private final boolean scalar;
+    private float b0, b1, b2, a1, a2;
+    private double designIntervalNs = 0;
+    private double intervalNs = 0; // running average of the sampling interval
+    private long lastTimeNs = -1;
+    private final float[] z1 = new float[3];
+    private final float[] z2 = new float[3];
+
+    /**
+     * @param scalar true to filter z only, e.g. behind {@link Magnitude}
+     */
+    public Biquad(float cutoffHz, boolean scalar) {
+      this.cutoffHz = cutoffHz;
+      this.scalar = scalar;
+    }
+
+    @Override
+    public int process(long[] timeNs, float[] xyz, int n) {
+      if (n == 0) return 0;
+      track(timeNs, n);
+      float b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+      // the state stays in locals: the recursion is bound by its latency, so
+      // the three axes are interleaved to run side by side
+      float sx1 = z1[0], sx2 = z2[0], sy1 = z1[1], sy2 = z2[1], sz1 = z1[2], sz2 = z2[2];
+      long last = lastTimeNs;
+      for (int i = 0, j = 0; i < n; i++, j += 3) {
+        long t = timeNs[i];
+        float z = xyz[j + 2];
+        if (last < 0 || t <= last || t - last > MAX_GAP_NS) {
+          // (re)start as if the sample had been constant forever, it passes unchanged
+          sz2 = (b2 - a2) * z;
+          sz1 = (b1 - a1) * z + sz2;
+          if (!scalar) {
+            float x = xyz[j];
+            float y = xyz[j + 1];
+            sx2 = (b2 - a2) * x;
+            sx1 = (b1 - a1) * x + sx2;
+            sy2 = (b2 - a2) * y;
+            sy1 = (b1 - a1) * y + sy2;
+          }
+        } else {
+          float out = b0 * z + sz1;
+          sz1 = b1 * z - a1 * out + sz2;
+          sz2 = b2 * z - a2 * out;
+          xyz[j + 2] = out;
+          if (!scalar) {
+            float x = xyz[j];
+            out = b0 * x + sx1;
+            sx1 = b1 * x - a1 * out + sx2;
+            sx2 = b2 * x - a2 * out;
+            xyz[j] = out;
+            float y = xyz[j + 1];
+            out = b0 * y + sy1;
+            sy1 = b1 * y - a1 * out + sy2;
+            sy2 = b2 * y - a2 * out;
+            xyz[j + 1] = out;
+          }
+        }
+        last = t;
+      }
+      z1[0] = sx1;
+      z2[0] = sx2;
+      z1[1] = sy1;
+      z2[1] = sy2;
+      z1[2] = sz1;
+      z2[2] = sz2;
+      lastTimeNs = last;
+      return n;
+    }
+
+    /**
+     * Updates the sampling interval with the samples of a burst, and the
+     * coefficients if it drifted.
+     */
+    private void track(long[] timeNs, int n) {
+      boolean continues = lastTimeNs >= 0 && timeNs[0] > lastTimeNs &&
+              timeNs[0] - lastTimeNs <= MAX_GAP_NS;
+      long span = timeNs[n - 1] - (continues ? lastTimeNs : timeNs[0]);
+      int intervals = continues ? n : n - 1;
+      if (intervals > 0 && span > 0) {
+        double interval = span / (double) intervals;
+        intervalNs = intervalNs == 0 ? interval :
+                intervalNs + (interval - intervalNs) * Math.min(1, intervals * 0.05);
+      }
+      if (designIntervalNs == 0) {
+        design(intervalNs > 0 ? intervalNs : DEFAULT_INTERVAL_NS);
+      } else if (intervalNs > 0 &&
+              Math.abs(intervalNs - designIntervalNs) > designIntervalNs * MAX_RATE_CHANGE) {
+        design(intervalNs);
+      }
+    }
+
+    private void design(double interval) {
+      designIntervalNs = interval;
+      double rate = 1e9 / interval;
+      double w0 = 2 * Math.PI * Math.min(cutoffHz, 0.45 * rate) / rate;
+      double cos = Math.cos(w0);
+      double alpha = Math.sin(w0) / (2 * Q);
+      double a0 = 1 + alpha;
+      double b = (1 - cos) / 2;
+      b0 = (float) (b / a0);
+      b1 = (float) (2 * b / a0);
+      b2 = b0;
+      a1 = (float) (-2 * cos / a0);
+      a2 = (float) ((1 - alpha) / a0);
+    }
+  }
+
+  /**
+   * Keeps every n-th sample, counting on across bursts.
+   */
+  public static class Decimation implements Stage {
+    private final int factor;
+    private int phase = 0; // position of the next sample in the cycle of factor, 0 is kept
+
+    public Decimation(int factor) {
+      this.factor = factor;
+    }
+
+    @Override
+    public int process(long[] timeNs, float[] xyz, int n) {
+      int kept = 0;
+      // jumps over the dropped samples instead of counting each
+      for (int i = phase == 0 ? 0 : factor - phase; i < n; i += factor) {
+        timeNs[kept] = timeNs[i];
+        xyz[kept * 3] = xyz[i * 3];
+        xyz[kept * 3 + 1] = xyz[i * 3 + 1];
+        xyz[kept * 3 + 2] = xyz[i * 3 + 2];
+        kept++;
+      }
+      phase = (phase + n) % factor;
+      return kept;
+    }
+  }
+
+  /**
+   * Replaces each sample by its magnitude along z, dropping the orientation.
+   */
+  public static class Magnitude implements Stage {
+    @Override
+    public int process(long[] timeNs, float[] xyz, int n) {
+      for (int j = 0; j < n * 3; j += 3) {
+        xyz[j + 2] = SensorFusionMath.norm(xyz[j], xyz[j + 1], xyz[j + 2]);
+        xyz[j] = 0;
+        xyz[j + 1] = 0;
+      }
+      return n;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * Adaptive peak detection on the magnitude of the acceleration. A step is a
+ * peak of the smoothed magnitude, minus its running mean (gravity), above a
+ * threshold that follows the height of the recent step peaks; so it adapts
+ * to how hard the user walks and where the device is carried, and needs no
+ * orientation estimate.
+ */
+public class PeakStepDetector implements StepEngine {
+
+  private static final float GRAVITY_TIME_CONSTANT_NS = 1e9f;
+  private static final float SMOOTHING_TIME_CONSTANT_NS = 4e7f;
+  private static final float MIN_THRESHOLD = 1.2f; // m/s^2
+  // the threshold is this part of the average recent step peak
+  private static final float PEAK_FRACTION = 0.5f;
+  private static final float PEAK_ADAPTATION = 0.25f;
+  private static final long MIN_STEP_INTERVAL_NS = 250000000L;
+  // no step for this long ends the walk, the threshold starts over
+  private static final long MAX_STEP_INTERVAL_NS = 2000000000L;
+  // samples closer than this to the gravity estimate (m/s^2) count as no motion
+  private static final float STATIONARY_THRESHOLD = 0.5f;
+
+  private long startTimeNs = -1;
+  private long lastTimeNs = 0;
+  private float gravity;
+  private float current; // smoothed magnitude minus gravity
+  private float previous;
+  private long previousTimeNs;
+  private boolean rising;
+  private boolean armed = true; // the signal went below gravity since the last step
+  private float averagePeak = 0;
+  private long lastStepTimeNs = 0;
+  private long motionTimeNs = -1; // last sample that moved, -1 if unknown
+
+  /**
+   * Accepts updates from the accelerometer. Does not allocate.
+   */
+  public int updateAccel(long timeNs, float x, float y, float z) {
+    float magnitude = SensorFusionMath.norm(x, y, z);
+    if (startTimeNs < 0) {
+      startTimeNs = timeNs;
+      lastTimeNs = timeNs;
+      gravity = magnitude;
+    }
+    // exponential smoothing by time, so the sampling rate doesn't matter;
+    // a gap in the samples just restarts the filters from the current value
+    float dt = Math.min(timeNs - lastTimeNs, (long) GRAVITY_TIME_CONSTANT_NS);
+    if (dt < 0) dt = 0;
+    gravity += (magnitude - gravity) * dt / (GRAVITY_TIME_CONSTANT_NS + dt);
+    float deviation = magnitude - gravity;
+    current += (deviation - current) * dt / (SMOOTHING_TIME_CONSTANT_NS + dt);
+    lastTimeNs = timeNs;
+
+    if (Math.abs(deviation) > STATIONARY_THRESHOLD || motionTimeNs < 0
+        || timeNs - startTimeNs < GRAVITY_TIME_CONSTANT_NS) {
+      motionTimeNs = timeNs;
+    }
+
+    if (lastStepTimeNs != 0 && timeNs - lastStepTimeNs > MAX_STEP_INTERVAL_NS) {
+      averagePeak = 0;
+    }
+
+    int newSteps = 0;
+    if (current < previous && rising) {
+      // 'previous' was a peak
+      float threshold = Math.max(MIN_THRESHOLD, PEAK_FRACTION * averagePeak);
+      if (armed && previous > threshold
+          && previousTimeNs - lastStepTimeNs >= MIN_STEP_INTERVAL_NS) {
+        newSteps = 1;
+        lastStepTimeNs = previousTimeNs;
+        averagePeak += (previous - averagePeak) * PEAK_ADAPTATION;
+        armed = false;
+      }
+    }
+    if (current < 0) {
+      armed = true;
+    }
+    if (current != previous) {
+      rising = current > previous;
+    }
+    previous = current;
+    previousTimeNs = timeNs;
+    return newSteps;
+  }
+
+  @Override
+  public int updateAccelBatch(long[] timeNs, float[] xyz, int n) {
+    int newSteps = 0;
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      // at most one step per sample, so this never overwrites a sample still to read
+      if (updateAccel(timeNs[i], xyz[j], xyz[j + 1], xyz[j + 2]) > 0) {
+        timeNs[newSteps++] = lastStepTimeNs;
+      }
+    }
+    return newSteps;
+  }
+
+  @Override
+  public boolean isStationary(long windowNs) {
+    return motionTimeNs >= 0 && lastTimeNs - motionTimeNs >= windowNs;
+  }
+
+  @Override
+  public void resetStationary() {
+    motionTimeNs = -1;
+  }
+}
@@ -49,12 +49,20 @@ public class SensorFusionMath {
     return (float) Math.sqrt(retval);
   }
 
+  public static float norm(float x, float y, float z) {
+    return (float) Math.sqrt(x * x + y * y + z * z);
+  }
+
   // Note: only works with 3D vectors.
   public static float dot(float[] a, float[] b) {
     float retval = a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
     return retval;
   }
 
+  public static float dot(float ax, float ay, float az, float bx, float by, float bz) {
+    return ax * bx + ay * by + az * bz;
+  }
+
   public static float[] normalize(float[] a) {
     float[] retval = new float[a.length];
     float norm = norm(a);
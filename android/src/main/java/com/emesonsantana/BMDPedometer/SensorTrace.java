@@ -0,0 +1,139 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * File format of the sensor events written by {@link SensorTraceRecorder},
+ * and a reader for it. Plain Java, so traces can be replayed off the device.
+ * <p/>
+ * All values are little endian. The header holds the magic number, the
+ * version, and the wall clock time in ms and the elapsed realtime in ns when
+ * recording started. Each event follows as a record of the sensor type
+ * (byte), the event timestamp (long, ns of elapsed realtime), how long after
+ * that timestamp it was delivered (int, us), and three values (float, unused
+ * ones are 0). Completed FIFO flushes are recorded as events of type
+ * {@link #TYPE_FLUSH_COMPLETED} at the time they were delivered. A record of
+ * type 0 ends the trace early: a recording that was not closed leaves zeros
+ * behind its last record.
+ */
+public class SensorTrace {
+    public final static int MAGIC = 0x54444d42; // "BMDT"
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 4 + 4 + 8 + 8;
+    public final static int RECORD_SIZE = 1 + 8 + 4 + 3 * 4;
+    // record type of a completed sensor FIFO flush, the sensor types are all positive
+    public final static int TYPE_FLUSH_COMPLETED = -1;
+
+    private final ByteBuffer buffer;
+    private final long startWallTime;
+    private final long startTimestamp;
+
+    private int type;
+    private long timestamp;
+    private int delay;
+    private final float[] values = new float[3];
+
+    private SensorTrace(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("not a sensor trace");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("unknown sensor trace version " + version);
+        }
+        startWallTime = buffer.getLong();
+        startTimestamp = buffer.getLong();
+    }
+
+    public static SensorTrace open(final File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return new SensorTrace(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        } finally {
+            in.close(); // the mapping stays valid
+        }
+    }
+
+    /**
+     * @param buffer the content of a trace file, e.g. read from a resource
+     */
+    public static SensorTrace wrap(final ByteBuffer buffer) throws IOException {
+        return new SensorTrace(buffer.duplicate());
+    }
+
+    /**
+     * Moves to the next event.
+     *
+     * @return false, if there are no more events
+     */
+    public boolean next() {
+        if (buffer.remaining() < RECORD_SIZE) return false;
+        type = buffer.get();
+        if (type == 0) {
+            buffer.position(buffer.limit());
+            return false;
+        }
+        timestamp = buffer.getLong();
+        delay = buffer.getInt();
+        values[0] = buffer.getFloat();
+        values[1] = buffer.getFloat();
+        values[2] = buffer.getFloat();
+        return true;
+    }
+
+    /**
+     * @return the wall clock time recording started at, in ms since 1970
+     */
+    public long getStartWallTime() {
+        return startWallTime;
+    }
+
+    /**
+     * @return the elapsed realtime recording started at, in ns
+     */
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /**
+     * @return the android.hardware.Sensor type of the current event
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the timestamp of the current event in ns of elapsed realtime
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the elapsed realtime the current event was delivered at, in ns
+     */
+    public long getDeliveryTime() {
+        return timestamp + delay * 1000L;
+    }
+
+    /**
+     * @return the current event's values; the array is reused by {@link #next()}
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param timestamp an event timestamp in ns of elapsed realtime
+     * @return the wall clock time of the timestamp in ms since 1970
+     */
+    public long toWallTime(long timestamp) {
+        return startWallTime + (timestamp - startTimestamp) / 1000000;
+    }
+}
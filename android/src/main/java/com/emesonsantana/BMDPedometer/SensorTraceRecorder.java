@@ -0,0 +1,78 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends sensor events to a {@link SensorTrace} file through a memory
+ * mapping, so recording is a few stores per event and the kernel writes the
+ * pages out. Not thread safe, call it from the sensor thread only.
+ */
+public class SensorTraceRecorder {
+    private final static int CHUNK_SIZE = 1 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long bufferStart; // file offset of the mapped chunk
+
+    /**
+     * @param file          the trace file, replaced if it exists
+     * @param wallTime      the current time in ms since 1970
+     * @param elapsedNanos  the current elapsed realtime in ns
+     */
+    public SensorTraceRecorder(final File file, long wallTime, long elapsedNanos) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        map(0);
+        buffer.putInt(SensorTrace.MAGIC)
+                .putInt(SensorTrace.VERSION)
+                .putLong(wallTime)
+                .putLong(elapsedNanos);
+    }
+
+    private void map(long start) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, CHUNK_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        bufferStart = start;
+    }
+
+    /**
+     * @param type         the sensor type or SensorTrace.TYPE_FLUSH_COMPLETED, must not be 0
+     * @param timestamp    the event timestamp in ns of elapsed realtime
+     * @param elapsedNanos the elapsed realtime the event was delivered at
+     * @param values       the event values, only the first three are kept
+     */
+    public void record(int type, long timestamp, long elapsedNanos, final float[] values)
+            throws IOException {
+        if (buffer.remaining() < SensorTrace.RECORD_SIZE) {
+            map(bufferStart + buffer.position());
+        }
+        long delay = Math.max(0, Math.min(Integer.MAX_VALUE, (elapsedNanos - timestamp) / 1000));
+        buffer.put((byte) type)
+                .putLong(timestamp)
+                .putInt((int) delay)
+                .putFloat(values.length > 0 ? values[0] : 0)
+                .putFloat(values.length > 1 ? values[1] : 0)
+                .putFloat(values.length > 2 ? values[2] : 0);
+    }
+
+    /**
+     * Cuts the file to the recorded events and closes it.
+     */
+    public void close() throws IOException {
+        long size = bufferStart + buffer.position();
+        buffer.force();
+        buffer = null;
+        try {
+            channel.truncate(size);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -22,6 +22,9 @@ public class ShutdownReceiver extends BroadcastReceiver {
         context.getSharedPreferences("pedometer", Context.MODE_PRIVATE).edit()
                 .putBoolean("correctShutdown", true).commit();
 
+        // write what the service has not written yet, before reading it back
+        StepWriter.getInstance(context).flushNow();
+
         Database db = Database.getInstance(context);
         // if it's already a new day, add the temp. steps to the last one
         if (db.getSteps(Utility.getToday()) == Integer.MIN_VALUE) {
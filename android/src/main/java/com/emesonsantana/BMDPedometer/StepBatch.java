@@ -0,0 +1,84 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.util.Arrays;
+
+/**
+ * Step totals collected for one batched update of {@link BMDPedometerModule},
+ * as the time of each and its delta to the one before. The first total after
+ * a {@link #reset()}, usually the seed, is the baseline the deltas count from
+ * and gets delta 0; all totals have to be in the same unit, today's steps.
+ * Plain Java, not thread-safe.
+ */
+public class StepBatch {
+
+    private long[] times = new long[32];
+    private int[] deltas = new int[32];
+    private int size;
+    private int total;
+    private boolean started;
+
+    /**
+     * @param time  the time of the total in ms since 1970
+     * @param total today's steps
+     * @return true, if this is the first total of the batch
+     */
+    public boolean add(long time, int total) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            deltas = Arrays.copyOf(deltas, size * 2);
+        }
+        times[size] = time;
+        deltas[size] = started ? total - this.total : 0;
+        this.total = total;
+        started = true;
+        return size++ == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the time of the first total in ms since 1970
+     */
+    public long getTime() {
+        return times[0];
+    }
+
+    /**
+     * @return the time of total 'i' in ms since 1970
+     */
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     * @return the delta of total 'i' to the one before
+     */
+    public int getDelta(int i) {
+        return deltas[i];
+    }
+
+    /**
+     * @return the last total
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Starts the next batch, counting on from the last total.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Starts over: the next total is a new baseline.
+     */
+    public void reset() {
+        size = 0;
+        total = 0;
+        started = false;
+    }
+}
@@ -0,0 +1,59 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.util.Arrays;
+
+/**
+ * Steps per {@link #BUCKET_LENGTH} bucket, in the order they were added.
+ * Steps for the bucket of the last entry are added to it, so steps booked in
+ * time order end up with one entry per bucket. Plain Java, shared by
+ * {@link StepWriter} and the off-device replay of sensor traces.
+ */
+public class StepBuckets {
+    // length of a bucket of the per-minute step history in ms
+    public final static long BUCKET_LENGTH = 60000;
+
+    private long[] times = new long[64];
+    private int[] steps = new int[64];
+    private int size;
+
+    /**
+     * @param time  the time the steps were taken in ms since 1970
+     * @param steps the number of new steps
+     */
+    public void add(long time, int steps) {
+        long bucket = time - time % BUCKET_LENGTH;
+        if (size > 0 && times[size - 1] == bucket) {
+            this.steps[size - 1] += steps;
+            return;
+        }
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            this.steps = Arrays.copyOf(this.steps, size * 2);
+        }
+        times[size] = bucket;
+        this.steps[size] = steps;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the bucket start times in ms since 1970
+     */
+    public long[] getTimes() {
+        return Arrays.copyOf(times, size);
+    }
+
+    /**
+     * @return a copy of the steps per bucket, in the order of {@link #getTimes()}
+     */
+    public int[] getSteps() {
+        return Arrays.copyOf(steps, size);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
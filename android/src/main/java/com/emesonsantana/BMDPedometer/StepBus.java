@@ -0,0 +1,52 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * In-process channel for step totals from {@link StepService} to its
+ * listeners, e.g. {@link BMDPedometerModule}. Publishing does not allocate;
+ * the STEPPED broadcast is only needed if nobody in this process listens,
+ * i.e. the service runs in a different process.
+ */
+public class StepBus {
+
+    public interface Listener {
+        void onSteps(int steps);
+    }
+
+    // copied on write, so publishing only has to read the field
+    private static volatile Listener[] listeners = new Listener[0];
+
+    private StepBus() {
+    }
+
+    public static synchronized void subscribe(final Listener listener) {
+        Listener[] next = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, next, 0, listeners.length);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    public static synchronized void unsubscribe(final Listener listener) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                Listener[] next = new Listener[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                listeners = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param steps the current step total
+     * @return true, if there was a listener in this process
+     */
+    public static boolean publish(int steps) {
+        Listener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onSteps(steps);
+        }
+        return current.length > 0;
+    }
+}
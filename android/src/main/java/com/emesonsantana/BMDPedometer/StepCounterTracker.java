@@ -0,0 +1,46 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * Turns the cumulative values of the step counter sensor into deltas.
+ * <p/>
+ * The sensor counts steps since boot, so a value below the last one means
+ * the device was rebooted and all of it are new steps. The last value has to
+ * be persisted to count the steps taken while the service was not running.
+ */
+public class StepCounterTracker {
+
+    private long last = -1; // last raw counter value, -1 if unknown
+
+    /**
+     * @param value the raw value of a step counter event
+     * @return the number of new steps since the last value
+     */
+    public int update(float value) {
+        long raw = (long) value;
+        int delta;
+        if (last < 0) {
+            // nothing to compare with yet, this is the baseline
+            delta = 0;
+        } else if (raw < last) {
+            delta = (int) raw;
+        } else {
+            delta = (int) (raw - last);
+        }
+        last = raw;
+        return delta;
+    }
+
+    /**
+     * @return the last raw counter value, -1 if unknown
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @param last a raw counter value to continue from, -1 if unknown
+     */
+    public void setLast(long last) {
+        this.last = last;
+    }
+}
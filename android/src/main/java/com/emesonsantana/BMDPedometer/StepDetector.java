@@ -17,57 +17,97 @@
 package com.emesonsantana.BMDPedometer;
 
 /**
- * Receives sensor updates and alerts a StepListener when a step has been detected.
+ * Receives sensor updates and reports the steps detected: a step is the
+ * velocity along gravity, summed over the last samples, crossing a fixed
+ * threshold.
  */
-public class StepDetector {
+public class StepDetector implements StepEngine {
 
   private static final int ACCEL_RING_SIZE = 50;
   private static final int VEL_RING_SIZE = 10;
   private static final float STEP_THRESHOLD = 16f; // Default 4f
   private static final int STEP_DELAY_NS = 250000000; // Default 250000000
+  // samples closer than this to the gravity estimate (m/s^2) count as no motion
+  private static final float STATIONARY_THRESHOLD = 0.5f;
 
-  private int accelRingCounter = 0;
+  private int accelRingIndex = 0;
+  private int accelRingFill = 0;
   private float[] accelRingX = new float[ACCEL_RING_SIZE];
   private float[] accelRingY = new float[ACCEL_RING_SIZE];
   private float[] accelRingZ = new float[ACCEL_RING_SIZE];
-  private int velRingCounter = 0;
+  private int velRingIndex = 0;
   private float[] velRing = new float[VEL_RING_SIZE];
   private long lastStepTimeNs = 0;
   private float oldVelocityEstimate = 0;
 
+  // Running sums of the rings, so a sample costs O(1) instead of re-summing
+  // every slot. They are re-summed exactly each time the ring wraps around to
+  // keep rounding drift from accumulating over a day of samples.
+  private double accelSumX = 0;
+  private double accelSumY = 0;
+  private double accelSumZ = 0;
+  private double velSum = 0;
+
+  private long lastTimeNs = 0;
+  private long motionTimeNs = -1; // last sample that moved, -1 if unknown
+
   /**
-   * Accepts updates from the accelerometer.
+   * Accepts updates from the accelerometer. Does not allocate.
    */
   public int updateAccel(long timeNs, float x, float y, float z) {
-    float[] currentAccel = new float[3];
-    currentAccel[0] = x;
-    currentAccel[1] = y;
-    currentAccel[2] = z;
-
     // First step is to update our guess of where the global z vector is.
-    accelRingCounter++;
-    accelRingX[accelRingCounter % ACCEL_RING_SIZE] = currentAccel[0];
-    accelRingY[accelRingCounter % ACCEL_RING_SIZE] = currentAccel[1];
-    accelRingZ[accelRingCounter % ACCEL_RING_SIZE] = currentAccel[2];
+    accelRingIndex = (accelRingIndex + 1) % ACCEL_RING_SIZE;
+    if (accelRingIndex == 0) {
+      accelRingX[0] = x;
+      accelRingY[0] = y;
+      accelRingZ[0] = z;
+      accelSumX = SensorFusionMath.sum(accelRingX);
+      accelSumY = SensorFusionMath.sum(accelRingY);
+      accelSumZ = SensorFusionMath.sum(accelRingZ);
+    } else {
+      accelSumX += x - accelRingX[accelRingIndex];
+      accelSumY += y - accelRingY[accelRingIndex];
+      accelSumZ += z - accelRingZ[accelRingIndex];
+      accelRingX[accelRingIndex] = x;
+      accelRingY[accelRingIndex] = y;
+      accelRingZ[accelRingIndex] = z;
+    }
+    if (accelRingFill < ACCEL_RING_SIZE) {
+      accelRingFill++;
+    }
 
-    float[] worldZ = new float[3];
-    worldZ[0] = SensorFusionMath.sum(accelRingX) / Math.min(accelRingCounter, ACCEL_RING_SIZE);
-    worldZ[1] = SensorFusionMath.sum(accelRingY) / Math.min(accelRingCounter, ACCEL_RING_SIZE);
-    worldZ[2] = SensorFusionMath.sum(accelRingZ) / Math.min(accelRingCounter, ACCEL_RING_SIZE);
+    float worldZX = (float) accelSumX / accelRingFill;
+    float worldZY = (float) accelSumY / accelRingFill;
+    float worldZZ = (float) accelSumZ / accelRingFill;
 
-    float normalization_factor = SensorFusionMath.norm(worldZ);
+    float normalization_factor = SensorFusionMath.norm(worldZX, worldZY, worldZZ);
 
-    worldZ[0] = worldZ[0] / normalization_factor;
-    worldZ[1] = worldZ[1] / normalization_factor;
-    worldZ[2] = worldZ[2] / normalization_factor;
+    // The device lies still as long as samples stay close to the gravity estimate
+    float deviation = SensorFusionMath.norm(x - worldZX, y - worldZY, z - worldZZ);
+    if (deviation > STATIONARY_THRESHOLD || motionTimeNs < 0
+        || accelRingFill < ACCEL_RING_SIZE) {
+      motionTimeNs = timeNs;
+    }
+    lastTimeNs = timeNs;
+
+    worldZX = worldZX / normalization_factor;
+    worldZY = worldZY / normalization_factor;
+    worldZZ = worldZZ / normalization_factor;
 
     // Next step is to figure out the component of the current acceleration
     // in the direction of world_z and subtract gravity's contribution
-    float currentZ = SensorFusionMath.dot(worldZ, currentAccel) - normalization_factor;
-    velRingCounter++;
-    velRing[velRingCounter % VEL_RING_SIZE] = currentZ;
+    float currentZ = SensorFusionMath.dot(worldZX, worldZY, worldZZ, x, y, z)
+        - normalization_factor;
+    velRingIndex = (velRingIndex + 1) % VEL_RING_SIZE;
+    if (velRingIndex == 0) {
+      velRing[0] = currentZ;
+      velSum = SensorFusionMath.sum(velRing);
+    } else {
+      velSum += currentZ - velRing[velRingIndex];
+      velRing[velRingIndex] = currentZ;
+    }
 
-    float velocityEstimate = SensorFusionMath.sum(velRing);
+    float velocityEstimate = (float) velSum;
 
     //aboone: I didn't review this algorithm, but it only returns one step today
     // keeping that logic but changing the implementation to support multiple steps in the future
@@ -80,4 +120,26 @@ public class StepDetector {
     oldVelocityEstimate = velocityEstimate;
     return newSteps;
   }
-}
\ No newline at end of file
+
+  @Override
+  public boolean isStationary(long windowNs) {
+    return motionTimeNs >= 0 && lastTimeNs - motionTimeNs >= windowNs;
+  }
+
+  @Override
+  public void resetStationary() {
+    motionTimeNs = -1;
+  }
+
+  @Override
+  public int updateAccelBatch(long[] timeNs, float[] xyz, int n) {
+    int newSteps = 0;
+    for (int i = 0, j = 0; i < n; i++, j += 3) {
+      // at most one step per sample, so this never overwrites a sample still to read
+      if (updateAccel(timeNs[i], xyz[j], xyz[j + 1], xyz[j + 2]) > 0) {
+        timeNs[newSteps++] = lastStepTimeNs;
+      }
+    }
+    return newSteps;
+  }
+}
@@ -0,0 +1,92 @@
+package com.emesonsantana.BMDPedometer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Coalesces step updates before they are sent out: at most one update per
+ * 'interval' ms and only once 'steps' new steps came in. Intermediate totals
+ * are dropped; a total held back by the interval is delivered when it ends,
+ * one held back by the step granularity waits for enough steps.
+ * <p/>
+ * Not thread-safe, use it on the thread of the given handler only.
+ */
+public class StepEmitter {
+
+    public interface Sink {
+        void emit(int steps);
+    }
+
+    private final Handler handler;
+    private final Sink sink;
+
+    private long interval;
+    private int steps = 1;
+
+    private int latest;
+    private int lastEmitted;
+    private long lastEmitTime;
+    private boolean scheduled;
+
+    private final Runnable trailing = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            if (due()) {
+                emit();
+            }
+        }
+    };
+
+    public StepEmitter(final Handler handler, final Sink sink) {
+        this.handler = handler;
+        this.sink = sink;
+    }
+
+    /**
+     * @param interval minimum time between two updates in ms, 0 for no limit
+     * @param steps    minimum number of new steps for an update, at least 1
+     */
+    public void configure(long interval, int steps) {
+        this.interval = Math.max(0, interval);
+        this.steps = Math.max(1, steps);
+    }
+
+    public void update(int total) {
+        latest = total;
+        if (!due()) return;
+        long wait = lastEmitTime + interval - SystemClock.elapsedRealtime();
+        if (wait <= 0) {
+            if (scheduled) {
+                scheduled = false;
+                handler.removeCallbacks(trailing);
+            }
+            emit();
+        } else if (!scheduled) {
+            scheduled = true;
+            handler.postDelayed(trailing, wait);
+        }
+    }
+
+    /**
+     * Drops a pending update.
+     */
+    public void cancel() {
+        scheduled = false;
+        handler.removeCallbacks(trailing);
+    }
+
+    /**
+     * @return true if the latest total differs enough from the last one sent;
+     * a total that went down, e.g. after a reboot, always does
+     */
+    private boolean due() {
+        return latest - lastEmitted >= steps || latest < lastEmitted;
+    }
+
+    private void emit() {
+        lastEmitted = latest;
+        lastEmitTime = SystemClock.elapsedRealtime();
+        sink.emit(latest);
+    }
+}
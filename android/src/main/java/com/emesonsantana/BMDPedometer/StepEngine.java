@@ -0,0 +1,33 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * A step detection algorithm working on accelerometer samples, see
+ * {@link StepEngines} for the available ones. Implementations keep state
+ * between calls and are not thread safe.
+ */
+public interface StepEngine {
+
+  /**
+   * Accepts a burst of accelerometer samples, e.g. a flushed hardware FIFO.
+   * Does not allocate.
+   *
+   * @param timeNs sample timestamps; on return, the first entries hold the
+   *               timestamps of the steps detected, in order
+   * @param xyz    interleaved x, y, z values, 3 per sample
+   * @param n      number of samples to read from the arrays
+   * @return the number of steps detected in the burst
+   */
+  int updateAccelBatch(long[] timeNs, float[] xyz, int n);
+
+  /**
+   * @param windowNs how long the device has to lie still
+   * @return true, if no motion was seen within the last 'windowNs' of samples
+   */
+  boolean isStationary(long windowNs);
+
+  /**
+   * Forgets how long the device has been lying still, e.g. after samples
+   * were not delivered for a while.
+   */
+  void resetStationary();
+}
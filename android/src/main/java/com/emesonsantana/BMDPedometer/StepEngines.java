@@ -0,0 +1,48 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * Creates the {@link StepEngine}s by name, e.g. as set from JS.
+ */
+public final class StepEngines {
+  // velocity threshold on the vertical acceleration, StepDetector
+  public static final String VELOCITY = "velocity";
+  // adaptive peak detection on the acceleration magnitude, PeakStepDetector
+  public static final String PEAK = "peak";
+  public static final String DEFAULT = VELOCITY;
+
+  private StepEngines() {
+  }
+
+  /**
+   * @param name the engine's name, unknown names get the default engine
+   */
+  public static StepEngine create(String name) {
+    if (PEAK.equals(name)) {
+      return new PeakStepDetector();
+    }
+    return new StepDetector();
+  }
+
+  /**
+   * @param name    the engine's name
+   * @param filters the filters in front of it
+   * @throws IllegalArgumentException if there is no such engine, or it cannot
+   *                                  work on the samples the filters leave
+   */
+  public static void check(String name, FilterChain filters) {
+    if (!VELOCITY.equals(name) && !PEAK.equals(name)) {
+      throw new IllegalArgumentException("unknown step engine " + name);
+    }
+    if (VELOCITY.equals(name) && filters.decimates()) {
+      throw new IllegalArgumentException(
+              "the velocity engine counts its windows in samples, decimate needs the peak engine");
+    }
+  }
+
+  /**
+   * @return the name of the engine {@link #create(String)} returns for 'name'
+   */
+  public static String resolve(String name) {
+    return PEAK.equals(name) ? PEAK : DEFAULT;
+  }
+}
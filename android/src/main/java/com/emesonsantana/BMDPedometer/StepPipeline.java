@@ -0,0 +1,204 @@
+package com.emesonsantana.BMDPedometer;
+
+import com.emesonsantana.BMDPedometer.util.Diagnostics;
+
+import java.util.Arrays;
+
+/**
+ * The way of step counter and accelerometer events from the sensor to the
+ * steps booked. Events of a flushed hardware FIFO are collected into a
+ * burst; once the burst is complete, its accelerometer samples go through
+ * the {@link FilterChain} and the {@link StepEngine}, and its steps are
+ * reported to the {@link Listener}, each at the time of the event it was
+ * taken at: a counter delta at the time of its counter event, a detected
+ * step at the time of its sample.
+ * <p/>
+ * Plain Java and driven by the caller's clock: {@link StepService} feeds it
+ * the events as they are delivered, the replay of sensor traces feeds it the
+ * recorded ones. Not thread-safe.
+ */
+public class StepPipeline {
+    // android.hardware.Sensor types
+    public final static int TYPE_ACCELEROMETER = 1;
+    public final static int TYPE_STEP_DETECTOR = 18;
+    public final static int TYPE_STEP_COUNTER = 19;
+
+    // events closer than this to now are live, older ones belong to a flushed FIFO burst
+    public final static long BURST_GAP_NS = 1000000000L;
+    // how long to wait for the rest of an incomplete burst
+    public final static long BURST_SETTLE_NS = 100000000L;
+    private final static int BURST_CAPACITY = 512;
+
+    public interface Listener {
+        /**
+         * @param steps     new steps of a burst, more than 0
+         * @param timestamp the timestamp they were taken at in ns of elapsed realtime
+         */
+        void onSteps(int steps, long timestamp);
+    }
+
+    private final Listener listener;
+    private StepEngine stepEngine = StepEngines.create(StepEngines.DEFAULT);
+    private String stepEngineName = StepEngines.DEFAULT;
+    private FilterChain filterChain = new FilterChain();
+    private String filterSpec = "";
+    private final StepCounterTracker counterTracker = new StepCounterTracker();
+
+    // accelerometer samples of the current burst, collected until it is complete
+    private final long[] burstTimestamps = new long[BURST_CAPACITY];
+    private final float[] burstValues = new float[BURST_CAPACITY * 3];
+    private int burstSize;
+    private int burstEvents;
+    private int burstSteps;
+    // the step counter deltas of the current burst and the timestamps of their events
+    private long[] counterTimestamps = new long[64];
+    private int[] counterSteps = new int[64];
+    private int counterSize;
+
+    // steps seen by the step detector in live mode which the batched step
+    // counter has not reported yet; only shown, never booked
+    private int liveSteps;
+
+    public StepPipeline(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param engine  the {@link StepEngines step engine} for the accelerometer
+     * @param filters the {@link FilterChain} in front of it
+     * @return true, if anything changed; a new engine starts without history
+     * @throws IllegalArgumentException if the filters are invalid or do not
+     *                                  suit the engine, the samples are not
+     *                                  filtered then
+     */
+    public boolean configure(String engine, final String filters) {
+        engine = StepEngines.resolve(engine);
+        boolean changed = false;
+        if (!engine.equals(stepEngineName)) {
+            stepEngineName = engine;
+            stepEngine = StepEngines.create(engine);
+            changed = true;
+        }
+        if (changed || !filters.equals(filterSpec)) {
+            filterSpec = filters;
+            filterChain = new FilterChain();
+            FilterChain chain = FilterChain.parse(filters);
+            StepEngines.check(engine, chain);
+            filterChain = chain;
+            changed = true;
+        }
+        return changed;
+    }
+
+    public StepCounterTracker getCounterTracker() {
+        return counterTracker;
+    }
+
+    /**
+     * A step detector event in live mode: the step is shown right away, the
+     * step counter books it later.
+     */
+    public void addLiveStep() {
+        liveSteps++;
+    }
+
+    /**
+     * @return the steps to show on top of the booked ones
+     */
+    public int getLiveSteps() {
+        return liveSteps;
+    }
+
+    public void resetLiveSteps() {
+        liveSteps = 0;
+    }
+
+    /**
+     * Adds a step counter or accelerometer event to the current burst, other
+     * events are ignored.
+     *
+     * @param now the elapsed realtime in ns the event is delivered at
+     * @return true, if the burst is complete and {@link #processBurst()} has
+     * to run now; otherwise more events of it are on their way, and it has to
+     * run {@link #BURST_SETTLE_NS} after the first of them at the latest
+     */
+    public boolean add(int type, long timestamp, final float[] values, long now) {
+        if (type == TYPE_STEP_COUNTER) {
+            int steps = counterTracker.update(values[0]);
+            if (steps > 0) {
+                if (counterSize == counterTimestamps.length) {
+                    counterTimestamps = Arrays.copyOf(counterTimestamps, counterSize * 2);
+                    counterSteps = Arrays.copyOf(counterSteps, counterSize * 2);
+                }
+                counterTimestamps[counterSize] = timestamp;
+                counterSteps[counterSize] = steps;
+                counterSize++;
+                burstSteps += steps;
+            }
+        } else if (type == TYPE_ACCELEROMETER) {
+            int i = burstSize++;
+            burstTimestamps[i] = timestamp;
+            burstValues[i * 3] = values[0];
+            burstValues[i * 3 + 1] = values[1];
+            burstValues[i * 3 + 2] = values[2];
+        } else {
+            return false;
+        }
+        burstEvents++;
+        // don't hold on to the burst if its last event is simply old
+        return burstSize == BURST_CAPACITY || now - timestamp <= BURST_GAP_NS;
+    }
+
+    /**
+     * Detects the steps of the current burst and starts a new one.
+     *
+     * @return the new steps, already reported to the listener
+     */
+    public int processBurst() {
+        int steps = burstSteps;
+        // these counter steps include the ones already shown by the detector
+        liveSteps = Math.max(0, liveSteps - burstSteps);
+        for (int i = 0; i < counterSize; i++) {
+            listener.onSteps(counterSteps[i], counterTimestamps[i]);
+        }
+        int samples = burstSize > 0 ?
+                filterChain.process(burstTimestamps, burstValues, burstSize) : 0;
+        if (samples > 0) {
+            boolean measure = Diagnostics.isEnabled();
+            long start = measure ? System.nanoTime() : 0;
+            int detected = stepEngine.updateAccelBatch(burstTimestamps, burstValues, samples);
+            if (measure) {
+                Diagnostics.count(Diagnostics.DETECTOR_SAMPLES, samples);
+                Diagnostics.record(Diagnostics.DETECTOR_NS, (System.nanoTime() - start) / samples);
+            }
+            // the engine left the timestamps of the steps at the front
+            for (int i = 0; i < detected; i++) {
+                listener.onSteps(1, burstTimestamps[i]);
+            }
+            steps += detected;
+        }
+        if (burstEvents > 0) {
+            Diagnostics.count(Diagnostics.SENSOR_BATCHES);
+            Diagnostics.record(Diagnostics.BATCH_SIZE, burstEvents);
+        }
+        burstSize = 0;
+        burstEvents = 0;
+        burstSteps = 0;
+        counterSize = 0;
+        return steps;
+    }
+
+    /**
+     * @see StepEngine#isStationary(long)
+     */
+    public boolean isStationary(long windowNs) {
+        return stepEngine.isStationary(windowNs);
+    }
+
+    /**
+     * @see StepEngine#resetStationary()
+     */
+    public void resetStationary() {
+        stepEngine.resetStationary();
+    }
+}
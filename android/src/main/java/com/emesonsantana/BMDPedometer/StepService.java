@@ -1,5 +1,6 @@
 package com.emesonsantana.BMDPedometer;
 
+import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.AlarmManager;
 import android.app.Notification;
@@ -11,12 +12,20 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 
 import androidx.annotation.RequiresApi;
 
@@ -26,29 +35,133 @@ import com.emesonsantana.BMDPedometer.util.IsEmulatorConstant;
 import com.emesonsantana.BMDPedometer.util.Utility;
 import com.emesonsantana.BMDPedometer.util.Logger;
 import com.emesonsantana.BMDPedometer.util.Database;
+import com.emesonsantana.BMDPedometer.util.Diagnostics;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-public class StepService extends Service implements SensorEventListener  {
+public class StepService extends Service implements SensorEventListener2 {
     public final static String INTENT_STEPPED = "STEPPED";
     public static final String INTENT_EXTRA_STEPPED = "STEPPED";
 
     public final static int NOTIFICATION_ID = 1;
 
+    // SharedPreferences keys for the update rate limits set by BMDPedometerModule
+    public final static String PREF_UPDATE_INTERVAL = "updateInterval";
+    public final static String PREF_UPDATE_STEPS = "updateSteps";
+    public final static String PREF_TRACING = "tracing";
+    public final static String PREF_DIAGNOSTICS = "diagnostics";
+    public final static String PREF_RECORD_TRACE = "recordTrace";
+    public final static String PREF_STEP_ENGINE = "stepEngine";
+    public final static String PREF_FILTERS = "filters";
+    // directory in the app's files for the recorded sensor traces
+    public final static String TRACE_DIR = "traces";
+
+    /**
+     * Boolean extra for the service intent: true while a JS listener is
+     * attached and the host is resumed, so updates should not be batched.
+     */
+    public final static String EXTRA_LIVE = "live";
+    // set on the intent of the hourly alarm
+    public final static String EXTRA_ALARM = "alarm";
+    // set on the intent of the alarm that samples the accelerometer while idle
+    private final static String EXTRA_SAMPLE = "sample";
+
     private final static long MICROSECONDS_IN_ONE_MINUTE = 60000000;
+    private final static long MAX_REPORT_LATENCY_US = 10 * MICROSECONDS_IN_ONE_MINUTE;
+    // only fill the FIFO this far, it is shared with other sensors
+    private final static float FIFO_FILL = 0.8f;
+    // step counter events per second to expect when running
+    private final static float MAX_STEPS_PER_SECOND = 4;
+    private final static int SENSOR_DELAY_NORMAL_US = 200000;
+    // duty cycling of the accelerometer while the device lies still
+    private final static long STATIONARY_NS = 30000000000L;
+    private final static long SPARSE_STATIONARY_NS = 5000000000L;
+    private final static long SPARSE_INTERVAL_MS = 60000;
+    // longest sampling window, it ends earlier on steps or stillness
+    private final static long SPARSE_SAMPLE_MS = 10000;
     private final static long MILLISECONDS_IN_ONE_SECOND = 1000;
-    private final static long SAVE_OFFSET_TIME = AlarmManager.INTERVAL_HOUR;
-    private final static int SAVE_OFFSET_STEPS = 500;
+    private final static long BURST_SETTLE_MS = StepPipeline.BURST_SETTLE_NS / 1000000;
+
+    // the running service, if it runs in this process
+    private static volatile StepService running;
 
     private int steps;
-    private int lastSaveSteps;
-    private long lastSaveTime;
+    private boolean live;
+    private Sensor sensor;
+    private Sensor detector; // step detector registered next to the counter, if any
+    private boolean idle; // accelerometer unregistered until motion is seen
+    // accelerometer delivered unbatched for a short look while idle without significant motion
+    private boolean sampling;
+    private long samplingStart;
+    private PowerManager.WakeLock samplingLock;
+    private long stationaryWindowNs = STATIONARY_NS;
+    // flush requests waiting for onFlushCompleted, oldest first, only touched on the sensor thread
+    private final List<FlushRequest> flushRequests = new ArrayList<>();
     private long debugTimer = System.currentTimeMillis();
 
     private final BroadcastReceiver shutdownReceiver = new ShutdownReceiver();
-    private final StepDetector stepDetector = new StepDetector();
+    private final StepPipeline pipeline = new StepPipeline(new StepPipeline.Listener() {
+        @Override
+        public void onSteps(int steps, long timestamp) {
+            // steps are booked at the time of the event they were taken at
+            long time = System.currentTimeMillis() -
+                    (SystemClock.elapsedRealtimeNanos() - timestamp) / 1000000;
+            StepWriter.getInstance(StepService.this).addSteps(time, steps);
+        }
+    });
+    private boolean burstScheduled;
+
+    // sensor delivery, detection and persistence all run on this thread, never on the main looper
+    private HandlerThread sensorThread;
+    private Handler handler;
+    private StepEmitter emitter;
+    private SensorTraceRecorder recorder; // only while recording
+    private final TriggerEventListener motionListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(final TriggerEvent event) {
+            handler.post(wakeUp);
+        }
+    };
+    private final Runnable wakeUp = new Runnable() {
+        @Override
+        public void run() {
+            if (idle) {
+                Logger.log("motion, leave idle");
+                reRegisterSensor();
+            }
+        }
+    };
+    private final Runnable burstTimeout = new Runnable() {
+        @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+        @Override
+        public void run() {
+            burstScheduled = false;
+            processBurst();
+        }
+    };
+
+    /**
+     * A flush of all sensors of the listener. Each sensor registered at the
+     * time reports its completion once, in the order the flushes were made.
+     */
+    private static class FlushRequest {
+        final CountDownLatch latch;
+        boolean sensorPending = true;
+        boolean detectorPending;
+
+        FlushRequest(final CountDownLatch latch, boolean detectorPending) {
+            this.latch = latch;
+            this.detectorPending = detectorPending;
+        }
+    }
 
     @Override
     public void onAccuracyChanged(final Sensor sensor, int accuracy) {
@@ -57,28 +170,132 @@ public class StepService extends Service implements SensorEventListener  {
         if (BuildConfig.DEBUG) Logger.log(sensor.getName() + " accuracy changed: " + accuracy);
     }
 
+    /**
+     * Asks the sensor hardware to deliver the events waiting in its FIFO and
+     * waits at most 'timeout' ms until they are processed and handed to the
+     * {@link StepWriter}. Does nothing if the service does not run in this
+     * process. Do not call this on the main thread.
+     *
+     * @param timeout the maximum time to wait in ms
+     */
+    public static void flush(long timeout) {
+        StepService service = running;
+        if (service != null) {
+            service.flushSensor(timeout);
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void flushSensor(long timeout) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                SensorManager sm = (SensorManager) getSystemService(SENSOR_SERVICE);
+                if (sensor != null && sm.flush(StepService.this)) {
+                    flushRequests.add(new FlushRequest(latch, detector != null));
+                } else {
+                    latch.countDown();
+                }
+            }
+        });
+        if (!posted) return;
+        try {
+            latch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+    @Override
+    public void onFlushCompleted(final Sensor sensor) {
+        // the step detector only drives the live total, the counter or the
+        // accelerometer has the steps a flush waits for
+        boolean main = sensor.getType() != Sensor.TYPE_STEP_DETECTOR;
+        if (main) {
+            if (recorder != null) {
+                record(SensorTrace.TYPE_FLUSH_COMPLETED, SystemClock.elapsedRealtimeNanos(), new float[0]);
+            }
+            // all events of the FIFO are in, no need to wait for more of the burst
+            if (burstScheduled) {
+                burstScheduled = false;
+                handler.removeCallbacks(burstTimeout);
+            }
+            processBurst();
+        }
+        for (int i = 0; i < flushRequests.size(); i++) {
+            FlushRequest request = flushRequests.get(i);
+            if (main && request.sensorPending) {
+                request.sensorPending = false;
+                // its events are processed and handed to the StepWriter
+                request.latch.countDown();
+            } else if (!main && request.detectorPending) {
+                request.detectorPending = false;
+            } else {
+                continue;
+            }
+            if (!request.sensorPending && !request.detectorPending) {
+                flushRequests.remove(i);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Releases all flush requests; their completions will not come, e.g.
+     * because the listener was unregistered.
+     */
+    private void releaseFlushRequests() {
+        for (FlushRequest request : flushRequests) {
+            request.latch.countDown();
+        }
+        flushRequests.clear();
+    }
+
     /**
      * Sensor listener event.
+     * <p/>
+     * Events of a flushed hardware FIFO are only collected here; detection,
+     * persistence and notification run once when the burst is complete.
+     * Step detector events (live mode only) just update the shown total.
      * @param event
      */
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
     @Override
     public void onSensorChanged(final SensorEvent event) {
-
-        boolean isKnownSensorType = false;
-        int nextStepCount = 0;
-
-        if(event.sensor.getType() == Sensor.TYPE_STEP_COUNTER){
-            isKnownSensorType = true;
-            nextStepCount = (int) event.values[0];
-        } else if(event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            isKnownSensorType = true;
-            nextStepCount = stepDetector.updateAccel(
-                    event.timestamp, event.values[0], event.values[1], event.values[2]);
+        Diagnostics.count(Diagnostics.SENSOR_EVENTS);
+        int type = event.sensor.getType();
+        if (recorder != null) {
+            record(type, event.timestamp, event.values);
         }
-        // Only look at step counter or accelerometer events
-        if (!isKnownSensorType)
+        if (type == Sensor.TYPE_STEP_DETECTOR) {
+            // live path: show the step right away, the counter books it later
+            pipeline.addLiveStep();
+            emitter.update(this.steps + pipeline.getLiveSteps());
+            return;
+        } else if (type != Sensor.TYPE_STEP_COUNTER && type != Sensor.TYPE_ACCELEROMETER) {
+            // Only look at step counter or accelerometer events
             return;
+        }
+        if (!pipeline.add(type, event.timestamp, event.values, SystemClock.elapsedRealtimeNanos())) {
+            // more events of this burst are on their way
+            if (!burstScheduled) {
+                burstScheduled = true;
+                handler.postDelayed(burstTimeout, BURST_SETTLE_MS);
+            }
+            return;
+        }
+        if (burstScheduled) {
+            burstScheduled = false;
+            handler.removeCallbacks(burstTimeout);
+        }
+        processBurst();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void processBurst() {
+        int nextStepCount = pipeline.processBurst();
 
         // during emulator, let us take a step if a second has passed
         // so we don't have to be very precise with sensors to see activity
@@ -88,48 +305,137 @@ public class StepService extends Service implements SensorEventListener  {
             if ( diff >= MILLISECONDS_IN_ONE_SECOND) {
                 debugTimer = now;
                 nextStepCount = 1;
+                StepWriter.getInstance(this).addSteps(now, nextStepCount);
             }
         }
 
         this.steps += nextStepCount;
-
         save();
 
         if (nextStepCount > 0) {
-            Intent stepped = new Intent(INTENT_STEPPED);
-            stepped.putExtra(INTENT_EXTRA_STEPPED, this.steps);
-            sendBroadcast(stepped);
+            emitter.update(this.steps + pipeline.getLiveSteps());
+            // walking again, only a proper rest sends the accelerometer back to idle
+            stationaryWindowNs = STATIONARY_NS;
+        }
+
+        if (!live && sensor != null && sensor.getType() == Sensor.TYPE_ACCELEROMETER &&
+                pipeline.isStationary(stationaryWindowNs)) {
+            enterIdle();
+        } else if (sampling && (nextStepCount > 0 ||
+                SystemClock.elapsedRealtime() - samplingStart > SPARSE_SAMPLE_MS)) {
+            // moving again, back to batching
+            Logger.log("motion while sampling, leave idle");
+            stopSampling();
+            reRegisterSensor();
+        }
+    }
+
+    /**
+     * Stops the accelerometer while the device lies still. It comes back on
+     * significant motion or, without such a sensor, for a short sampling
+     * window every minute, woken by an alarm as the device may sleep.
+     */
+    @SuppressLint("NewApi")
+    private void enterIdle() {
+        SensorManager sm = (SensorManager) getSystemService(SENSOR_SERVICE);
+        sm.unregisterListener(this);
+        detector = null;
+        releaseFlushRequests();
+        stopSampling();
+        idle = true;
+        Sensor motion = Build.VERSION.SDK_INT >= 18 ?
+                sm.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION) : null;
+        if (motion != null && sm.requestTriggerSensor(motionListener, motion)) {
+            Logger.log("stationary, wait for significant motion");
+            stationaryWindowNs = STATIONARY_NS;
+        } else {
+            Logger.log("stationary, sample again in " + SPARSE_INTERVAL_MS);
+            stationaryWindowNs = SPARSE_STATIONARY_NS;
+            AlarmManager am = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+            long next = SystemClock.elapsedRealtime() + SPARSE_INTERVAL_MS;
+            if (Build.VERSION.SDK_INT >= 23) {
+                API23Wrapper.setAlarmWhileIdle(am, AlarmManager.ELAPSED_REALTIME_WAKEUP, next,
+                        getSampleIntent());
+            } else {
+                am.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, next, getSampleIntent());
+            }
+        }
+    }
+
+    private PendingIntent getSampleIntent() {
+        return PendingIntent.getService(getApplicationContext(), 4,
+                new Intent(this, StepService.class).putExtra(EXTRA_SAMPLE, true),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Starts a sampling window: the accelerometer is registered without
+     * batching, and the device kept awake for it if the app may do so.
+     */
+    private void startSampling() {
+        sampling = true;
+        samplingStart = SystemClock.elapsedRealtime();
+        if (checkCallingOrSelfPermission(Manifest.permission.WAKE_LOCK) ==
+                PackageManager.PERMISSION_GRANTED) {
+            if (samplingLock == null) {
+                samplingLock = ((PowerManager) getSystemService(Context.POWER_SERVICE))
+                        .newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "BMDPedometer:sampling");
+                samplingLock.setReferenceCounted(false);
+            }
+            samplingLock.acquire(SPARSE_SAMPLE_MS);
+        }
+    }
+
+    private void stopSampling() {
+        sampling = false;
+        if (samplingLock != null && samplingLock.isHeld()) {
+            samplingLock.release();
         }
     }
 
     /**
+     * Starts or stops recording the sensor events to a new file in
+     * {@link #TRACE_DIR}, see {@link SensorTrace}. Sensor thread only.
+     */
+    private void setRecording(boolean record) {
+        try {
+            if (record && recorder == null) {
+                File dir = new File(getFilesDir(), TRACE_DIR);
+                dir.mkdirs();
+                long now = System.currentTimeMillis();
+                recorder = new SensorTraceRecorder(new File(dir, "trace-" + now + ".bin"),
+                        now, SystemClock.elapsedRealtimeNanos());
+                Logger.log("recording sensor trace");
+            } else if (!record && recorder != null) {
+                SensorTraceRecorder stopped = recorder;
+                recorder = null;
+                stopped.close();
+                Logger.log("sensor trace recorded");
+            }
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            recorder = null;
+        }
+    }
+
+    private void record(int type, long timestamp, final float[] values) {
+        try {
+            recorder.record(type, timestamp, SystemClock.elapsedRealtimeNanos(), values);
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) Logger.log(e);
+            setRecording(false);
+        }
+    }
+
+    /**
+     * Hands the current step value to the {@link StepWriter}, which writes it
+     * behind our back.
      * @return true, if notification was updated
      */
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
     private boolean save() {
-        if (steps > lastSaveSteps + SAVE_OFFSET_STEPS ||
-                (steps > 0 && System.currentTimeMillis() > lastSaveTime + SAVE_OFFSET_TIME)) {
-            if (BuildConfig.DEBUG) Logger.log(
-                    "saving steps: steps=" + steps + " lastSave=" + lastSaveSteps +
-                            " lastSaveTime=" + new Date(lastSaveTime));
-            Database db = Database.getInstance(this);
-            if (db.getSteps(Utility.getToday()) == Integer.MIN_VALUE) {
-                int pauseDifference = steps -
-                        getSharedPreferences("pedometer", Context.MODE_PRIVATE)
-                                .getInt("pauseCount", steps);
-                db.insertNewDay(Utility.getToday(), steps - pauseDifference);
-                if (pauseDifference > 0) {
-                    // update pauseCount for the new day
-                    getSharedPreferences("pedometer", Context.MODE_PRIVATE).edit()
-                            .putInt("pauseCount", steps).apply();
-                }
-            }
-            db.saveCurrentSteps(steps);
-            db.close();
-            lastSaveSteps = steps;
-            lastSaveTime = System.currentTimeMillis();
+        if (StepWriter.getInstance(this).update(steps, pipeline.getCounterTracker().getLast())) {
             showNotification(); // update notification
-
             return true;
         } else {
             return false;
@@ -155,11 +461,48 @@ public class StepService extends Service implements SensorEventListener  {
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
     @Override
     public int onStartCommand(final Intent intent, int flags, int startId) {
-        reRegisterSensor();
-        registerBroadcastReceiver();
-        if (!save()) {
-            showNotification();
+        if (intent == null) {
+            Diagnostics.count(Diagnostics.SERVICE_RESTARTS); // restarted as START_STICKY
+        } else if (intent.getBooleanExtra(EXTRA_ALARM, false) ||
+                intent.getBooleanExtra(EXTRA_SAMPLE, false)) {
+            Diagnostics.count(Diagnostics.ALARM_WAKEUPS);
         }
+        final boolean sample = intent != null && intent.getBooleanExtra(EXTRA_SAMPLE, false);
+        final boolean hasLive = intent != null && intent.hasExtra(EXTRA_LIVE);
+        final boolean nextLive = hasLive && intent.getBooleanExtra(EXTRA_LIVE, false);
+        registerBroadcastReceiver();
+        SharedPreferences prefs = getSharedPreferences("pedometer", Context.MODE_PRIVATE);
+        final long updateInterval = prefs.getLong(PREF_UPDATE_INTERVAL, 0);
+        final int updateSteps = prefs.getInt(PREF_UPDATE_STEPS, 1);
+        final boolean recordTrace = prefs.getBoolean(PREF_RECORD_TRACE, false);
+        final String engine = StepEngines.resolve(prefs.getString(PREF_STEP_ENGINE, null));
+        final String filters = prefs.getString(PREF_FILTERS, "");
+        handler.post(new Runnable() {
+            @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+            @Override
+            public void run() {
+                if (hasLive) {
+                    live = nextLive;
+                }
+                if (sample && idle) {
+                    startSampling();
+                }
+                setRecording(recordTrace);
+                try {
+                    if (pipeline.configure(engine, filters) && Logger.isEnabled()) {
+                        Logger.log("step engine: " + engine + ", filters: " + filters);
+                    }
+                } catch (IllegalArgumentException e) {
+                    // the module checked them, but the preferences may be older
+                    if (BuildConfig.DEBUG) Logger.log(e);
+                }
+                reRegisterSensor();
+                emitter.configure(updateInterval, updateSteps);
+                if (!save()) {
+                    showNotification();
+                }
+            }
+        });
 
         // restart service every hour to save the current step count
         long nextUpdate = Math.min(Utility.getTomorrow(),
@@ -168,7 +511,8 @@ public class StepService extends Service implements SensorEventListener  {
         AlarmManager am =
                 (AlarmManager) getApplicationContext().getSystemService(Context.ALARM_SERVICE);
         PendingIntent pi = PendingIntent
-                .getService(getApplicationContext(), 2, new Intent(this, StepService.class),
+                .getService(getApplicationContext(), 2,
+                        new Intent(this, StepService.class).putExtra(EXTRA_ALARM, true),
                         PendingIntent.FLAG_UPDATE_CURRENT);
         if (Build.VERSION.SDK_INT >= 23) {
             API23Wrapper.setAlarmWhileIdle(am, AlarmManager.RTC, nextUpdate, pi);
@@ -182,13 +526,52 @@ public class StepService extends Service implements SensorEventListener  {
     @Override
     public void onCreate() {
         super.onCreate();
+        SharedPreferences prefs = getSharedPreferences("pedometer", Context.MODE_PRIVATE);
+        Logger.setTracing(prefs.getBoolean(PREF_TRACING, false));
+        if (prefs.getBoolean(PREF_DIAGNOSTICS, false)) {
+            Diagnostics.setEnabled(true);
+        }
+        Diagnostics.count(Diagnostics.SERVICE_STARTS);
         if (BuildConfig.DEBUG) Logger.log("SensorListener onCreate");
+        sensorThread = new HandlerThread("StepService", Process.THREAD_PRIORITY_BACKGROUND);
+        sensorThread.start();
+        handler = new Handler(sensorThread.getLooper());
+        running = this;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // continue from the persisted state, steps taken meanwhile are
+                // part of the first counter delta
+                StepWriter.getInstance(StepService.this).flushNow();
+                Database db = Database.getInstance(StepService.this);
+                steps = db.getCurrentSteps();
+                pipeline.getCounterTracker().setLast(db.getCounter());
+                db.close();
+            }
+        });
+        emitter = new StepEmitter(handler, new StepEmitter.Sink() {
+            @Override
+            public void emit(int steps) {
+                // listeners get today's steps, like the module's own totals
+                Database db = Database.getInstance(StepService.this);
+                steps = Utility.getTodaySteps(steps, db.getSteps(Utility.getToday()));
+                db.close();
+                if (!StepBus.publish(steps)) {
+                    // nobody listening in this process, try the others
+                    Intent stepped = new Intent(INTENT_STEPPED);
+                    stepped.putExtra(INTENT_EXTRA_STEPPED, steps);
+                    sendBroadcast(stepped);
+                    Diagnostics.count(Diagnostics.BROADCASTS);
+                }
+            }
+        });
     }
 
     @Override
     public void onTaskRemoved(final Intent rootIntent) {
         super.onTaskRemoved(rootIntent);
         if (BuildConfig.DEBUG) Logger.log("sensor service task removed");
+        StepWriter.getInstance(this).flushNow();
         // Restart service in 500 ms
         ((AlarmManager) getSystemService(Context.ALARM_SERVICE))
                 .set(AlarmManager.RTC, System.currentTimeMillis() + 500, PendingIntent
@@ -199,6 +582,7 @@ public class StepService extends Service implements SensorEventListener  {
     public void onDestroy() {
         super.onDestroy();
         if (BuildConfig.DEBUG) Logger.log("SensorListener onDestroy");
+        running = null;
         try {
             SensorManager sm = (SensorManager) getSystemService(SENSOR_SERVICE);
             sm.unregisterListener(this);
@@ -206,6 +590,25 @@ public class StepService extends Service implements SensorEventListener  {
             if (BuildConfig.DEBUG) Logger.log(e);
             e.printStackTrace();
         }
+        // handle what is left of the current burst, then let the thread finish
+        handler.removeCallbacks(burstTimeout);
+        handler.post(burstTimeout);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelIdle((SensorManager) getSystemService(SENSOR_SERVICE));
+                stopSampling();
+                setRecording(false);
+                StepWriter.getInstance(StepService.this).flushNow();
+                // nothing will complete these anymore
+                releaseFlushRequests();
+            }
+        });
+        if (Build.VERSION.SDK_INT >= 18) {
+            sensorThread.quitSafely();
+        } else {
+            sensorThread.quit();
+        }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
@@ -252,6 +655,10 @@ public class StepService extends Service implements SensorEventListener  {
         registerReceiver(shutdownReceiver, filter);
     }
 
+    /**
+     * (Re-)registers the sensor listener, leaving idle mode. Call it on the
+     * sensor thread only.
+     */
     @SuppressLint("NewApi")
     private void reRegisterSensor() {
         if (BuildConfig.DEBUG) Logger.log("re-register sensor listener");
@@ -262,6 +669,13 @@ public class StepService extends Service implements SensorEventListener  {
             if (BuildConfig.DEBUG) Logger.log(e);
             e.printStackTrace();
         }
+        // flushes of the old registration won't complete
+        releaseFlushRequests();
+        detector = null;
+        cancelIdle(sm);
+        if (!live) {
+            pipeline.resetLiveSteps();
+        }
 
         if (BuildConfig.DEBUG) {
             Logger.log("step sensors: " + sm.getSensorList(Sensor.TYPE_STEP_COUNTER).size());
@@ -281,11 +695,61 @@ public class StepService extends Service implements SensorEventListener  {
         if (sensor == null) {
             sensor = sm.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         }
+        this.sensor = sensor;
 
         if (sensor != null) {
-            // enable batching with delay of max 5 min
-            sm.registerListener(this, sensor,
-                    SensorManager.SENSOR_DELAY_NORMAL, (int) (5 * MICROSECONDS_IN_ONE_MINUTE));
+            // deliver right away while somebody watches or the sampling window
+            // runs, otherwise batch as long as the FIFO can hold the events
+            if (Logger.isEnabled()) {
+                Logger.log("register sensor, live: " + live + ", sampling: " + sampling);
+            }
+            sm.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL,
+                    live || sampling ? 0 : getMaxReportLatency(sensor), handler);
+            // the counter may still be delivered late by the hardware, so per
+            // step events drive the live updates while somebody watches
+            Sensor detector = sm.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+            if (live && sensor.getType() == Sensor.TYPE_STEP_COUNTER && detector != null &&
+                    sm.registerListener(this, detector, SensorManager.SENSOR_DELAY_NORMAL, 0, handler)) {
+                this.detector = detector;
+            }
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void cancelIdle(final SensorManager sm) {
+        handler.removeCallbacks(wakeUp);
+        if (idle && !sampling) {
+            ((AlarmManager) getSystemService(Context.ALARM_SERVICE)).cancel(getSampleIntent());
+        }
+        if (idle && Build.VERSION.SDK_INT >= 18) {
+            Sensor motion = sm.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+            if (motion != null) {
+                sm.cancelTriggerSensor(motionListener, motion);
+            }
+        }
+        idle = false;
+        // samples did not arrive while idle, judge stillness anew
+        pipeline.resetStationary();
+    }
+
+    /**
+     * @return the longest batching delay in us that does not overflow the
+     * hardware FIFO of the sensor
+     */
+    @SuppressLint("NewApi")
+    private static int getMaxReportLatency(final Sensor sensor) {
+        int fifo = sensor.getFifoReservedEventCount();
+        if (fifo <= 0) {
+            fifo = (int) (sensor.getFifoMaxEventCount() * FIFO_FILL);
+        }
+        if (fifo <= 0) {
+            // no FIFO, the latency doesn't matter
+            return (int) MAX_REPORT_LATENCY_US;
         }
+        float eventsPerSecond = sensor.getType() == Sensor.TYPE_STEP_COUNTER ?
+                MAX_STEPS_PER_SECOND : 1000000f / SENSOR_DELAY_NORMAL_US;
+        long latency = (long) (fifo / eventsPerSecond * 1000000);
+        if (BuildConfig.DEBUG) Logger.log("fifo: " + fifo + " max latency: " + latency);
+        return (int) Math.min(latency, MAX_REPORT_LATENCY_US);
     }
 }
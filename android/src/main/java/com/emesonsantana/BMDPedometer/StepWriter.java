@@ -0,0 +1,160 @@
+package com.emesonsantana.BMDPedometer;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.emesonsantana.BMDPedometer.util.Database;
+import com.emesonsantana.BMDPedometer.util.Diagnostics;
+import com.emesonsantana.BMDPedometer.util.Logger;
+import com.emesonsantana.BMDPedometer.util.Utility;
+
+import java.util.Date;
+
+/**
+ * Write-behind persistence for the step count of {@link StepService}.
+ * <p/>
+ * Updates are only remembered in memory and written by a single writer
+ * thread in one transaction, once enough steps piled up or at the latest
+ * after {@link #FLUSH_OFFSET_TIME}. New steps are also collected per
+ * {@link Database#BUCKET_LENGTH} bucket and written along. Use {@link #flushNow()} when the process
+ * might go away, e.g. on shutdown.
+ */
+public class StepWriter {
+
+    private final static long FLUSH_OFFSET_TIME = AlarmManager.INTERVAL_HOUR;
+    private final static int FLUSH_OFFSET_STEPS = 500;
+
+    private static StepWriter instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final Object writeLock = new Object();
+
+    private int pendingSteps;
+    private long pendingCounter = -1;
+    private boolean dirty;
+    private boolean flushScheduled;
+    private int lastFlushSteps;
+    private long lastFlushTime;
+
+    // steps per bucket not written yet, oldest first
+    private final StepBuckets pendingBuckets = new StepBuckets();
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushNow();
+        }
+    };
+
+    private StepWriter(final Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread("StepWriter", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized StepWriter getInstance(final Context c) {
+        if (instance == null) {
+            instance = new StepWriter(c.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Remembers the current step value, to be written later.
+     *
+     * @param steps   the current step value
+     * @param counter the last raw step counter value, -1 if unknown
+     * @return true, if this update triggered a write
+     */
+    public synchronized boolean update(int steps, long counter) {
+        pendingSteps = steps;
+        pendingCounter = counter;
+        dirty = true;
+        if (steps > lastFlushSteps + FLUSH_OFFSET_STEPS ||
+                (steps > 0 && System.currentTimeMillis() > lastFlushTime + FLUSH_OFFSET_TIME)) {
+            // claim the write now, so following updates don't trigger another one
+            lastFlushSteps = steps;
+            lastFlushTime = System.currentTimeMillis();
+            handler.removeCallbacks(flush);
+            flushScheduled = false;
+            handler.post(flush);
+            return true;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flush, FLUSH_OFFSET_TIME);
+        }
+        return false;
+    }
+
+    /**
+     * Remembers new steps for the bucket containing the given time, to be
+     * written along with the next step value.
+     *
+     * @param time  the time the steps were taken in ms since 1970
+     * @param steps the number of new steps
+     */
+    public synchronized void addSteps(long time, int steps) {
+        dirty = true;
+        pendingBuckets.add(time, steps);
+    }
+
+    /**
+     * Writes any pending step value on the calling thread.
+     */
+    public void flushNow() {
+        synchronized (writeLock) {
+            int steps;
+            long counter;
+            long[] bucketTimes;
+            int[] bucketSteps;
+            synchronized (this) {
+                if (!dirty) return;
+                steps = pendingSteps;
+                counter = pendingCounter;
+                bucketTimes = pendingBuckets.getTimes();
+                bucketSteps = pendingBuckets.getSteps();
+                pendingBuckets.clear();
+                dirty = false;
+                lastFlushSteps = steps;
+                lastFlushTime = System.currentTimeMillis();
+                handler.removeCallbacks(flush);
+                flushScheduled = false;
+            }
+            write(steps, counter, bucketTimes, bucketSteps);
+        }
+    }
+
+    private void write(int steps, long counter, long[] bucketTimes, int[] bucketSteps) {
+        if (BuildConfig.DEBUG) Logger.log(
+                "saving steps: steps=" + steps + " lastSaveTime=" + new Date(lastFlushTime));
+        boolean measure = Diagnostics.isEnabled();
+        long start = measure ? System.nanoTime() : 0;
+        Database db = Database.getInstance(context);
+        SQLiteDatabase sql = db.getWritableDatabase();
+        sql.beginTransaction();
+        try {
+            if (db.getSteps(Utility.getToday()) == Integer.MIN_VALUE) {
+                db.insertNewDay(Utility.getToday(), steps);
+            }
+            db.saveCurrentSteps(steps, counter);
+            for (int i = 0; i < bucketTimes.length; i++) {
+                db.addToBucket(bucketTimes[i], bucketSteps[i]);
+            }
+            sql.setTransactionSuccessful();
+        } finally {
+            sql.endTransaction();
+            db.close();
+        }
+        if (measure) {
+            Diagnostics.count(Diagnostics.DB_WRITES);
+            Diagnostics.record(Diagnostics.DB_WRITE_US, (System.nanoTime() - start) / 1000);
+        }
+    }
+}
@@ -4,12 +4,16 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Pair;
 
 import com.emesonsantana.BMDPedometer.BuildConfig;
+import com.emesonsantana.BMDPedometer.StepBuckets;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -17,11 +21,78 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class Database extends SQLiteOpenHelper {
 
     private final static String DB_NAME = "steps";
-    private final static int DB_VERSION = 1;
+    private final static int DB_VERSION = 6;
+
+    private final static String CURRENT = "current";
+
+    private final static String BUCKETS = "buckets";
+    /**
+     * Resolution of the 'buckets' table in ms: steps are stored per minute.
+     */
+    public final static long BUCKET_LENGTH = StepBuckets.BUCKET_LENGTH;
+
+    // rollups of the 'steps' table, kept up to date by every method changing a day;
+    // each day stores the keys of its week and month, so a change of the timezone
+    // doesn't move the day's later changes to another rollup row
+    private final static String WEEKS = "weeks";
+    private final static String MONTHS = "months";
+
+    // half a day: how far a key stored in another timezone may be from the current one
+    private final static long KEY_TOLERANCE = 12 * 60 * 60 * 1000;
 
     private static Database instance;
     private static final AtomicInteger openCounter = new AtomicInteger();
 
+    // the hot statements, compiled once per thread and opened database and reused
+    // with bound args; a thread only uses its own, so no Java lock is held while
+    // SQLite waits for its connection, e.g. during a write transaction of StepWriter
+    private final static int GET_STEPS = 0;
+    private final static int GET_CURRENT_STEPS = 1;
+    private final static int SAVE_CURRENT_STEPS = 2;
+    private final static int ADD_TO_LAST_ENTRY = 3;
+    private final static int INSERT_BUCKET = 4;
+    private final static int ADD_TO_BUCKET = 5;
+    private final static int GET_LAST_DATE = 6;
+    private final static int INSERT_WEEK = 7;
+    private final static int ADD_TO_WEEK = 8;
+    private final static int INSERT_MONTH = 9;
+    private final static int ADD_TO_MONTH = 10;
+    private final static int GET_COUNTER = 11;
+    private final static String[] STATEMENTS = {
+            "SELECT steps FROM " + DB_NAME + " WHERE date = ?",
+            "SELECT steps FROM " + CURRENT + " WHERE id = 0",
+            "INSERT OR REPLACE INTO " + CURRENT + " (id, steps, counter) VALUES (0, ?, ?)",
+            "UPDATE " + DB_NAME + " SET steps = steps + ? WHERE date = ?",
+            "INSERT OR IGNORE INTO " + BUCKETS + " (time, steps) VALUES (?, 0)",
+            "UPDATE " + BUCKETS + " SET steps = steps + ? WHERE time = ?",
+            "SELECT MAX(date) FROM " + DB_NAME,
+            "INSERT OR IGNORE INTO " + WEEKS + " (week, steps) SELECT week, 0 FROM " + DB_NAME +
+                    " WHERE date = ?",
+            "UPDATE " + WEEKS + " SET steps = steps + ? WHERE week = (SELECT week FROM " + DB_NAME +
+                    " WHERE date = ?)",
+            "INSERT OR IGNORE INTO " + MONTHS + " (month, steps) SELECT month, 0 FROM " + DB_NAME +
+                    " WHERE date = ?",
+            "UPDATE " + MONTHS + " SET steps = steps + ? WHERE month = (SELECT month FROM " + DB_NAME +
+                    " WHERE date = ?)",
+            "SELECT counter FROM " + CURRENT + " WHERE id = 0"
+    };
+    private final ThreadLocal<Statements> statements = new ThreadLocal<Statements>() {
+        @Override
+        protected Statements initialValue() {
+            return new Statements();
+        }
+    };
+
+    // cached current steps and steps of the last looked up date (usually today's
+    // offset); the write paths bump cacheGeneration once they are done, so a read
+    // racing with a write never stores the value from before the write
+    private final Object cacheLock = new Object();
+    private int cacheGeneration;
+    private boolean currentStepsCached;
+    private int cachedCurrentSteps;
+    private long cachedDate = Long.MIN_VALUE;
+    private int cachedDateSteps;
+
     private Database(final Context context) {
         super(context, DB_NAME, null, DB_VERSION);
     }
@@ -37,25 +108,162 @@ public class Database extends SQLiteOpenHelper {
     @Override
     public void close() {
         if (openCounter.decrementAndGet() == 0) {
+            statements.get().release();
             super.close();
         }
     }
 
+    /**
+     * Get the compiled statement of the calling thread for one of the hot
+     * queries. Only use it on this thread.
+     *
+     * @param which the statement index, e.g. GET_STEPS
+     * @return the compiled statement
+     */
+    private SQLiteStatement statement(int which) {
+        SQLiteDatabase db = getWritableDatabase();
+        Statements s = statements.get();
+        if (db != s.db) {
+            // the database was (re)opened, statements of the old one are invalid
+            s.release();
+            s.db = db;
+        }
+        if (s.compiled[which] == null) {
+            s.compiled[which] = db.compileStatement(STATEMENTS[which]);
+        }
+        return s.compiled[which];
+    }
+
+    private static class Statements {
+        private final SQLiteStatement[] compiled = new SQLiteStatement[STATEMENTS.length];
+        private SQLiteDatabase db;
+
+        private void release() {
+            for (int i = 0; i < compiled.length; i++) {
+                if (compiled[i] != null) {
+                    compiled[i].close();
+                    compiled[i] = null;
+                }
+            }
+            db = null;
+        }
+    }
+
+    private void invalidateDates() {
+        synchronized (cacheLock) {
+            cacheGeneration++;
+            cachedDate = Long.MIN_VALUE;
+        }
+    }
+
+    private void invalidateCurrentSteps() {
+        synchronized (cacheLock) {
+            cacheGeneration++;
+            currentStepsCached = false;
+        }
+    }
+
     @Override
     public void onCreate(final SQLiteDatabase db) {
-        db.execSQL("CREATE TABLE " + DB_NAME + " (date INTEGER, steps INTEGER)");
+        createSteps(db, DB_NAME);
+        createBuckets(db);
+        createCurrent(db);
+        createRollups(db);
     }
 
     @Override
     public void onUpgrade(final SQLiteDatabase db, int oldVersion, int newVersion) {
-//        if (oldVersion == 1) {
-//            // drop PRIMARY KEY constraint
-//            db.execSQL("CREATE TABLE " + DB_NAME + "2 (date INTEGER, steps INTEGER)");
-//            db.execSQL("INSERT INTO " + DB_NAME + "2 (date, steps) SELECT date, steps FROM " +
-//                    DB_NAME);
-//            db.execSQL("DROP TABLE " + DB_NAME);
-//            db.execSQL("ALTER TABLE " + DB_NAME + "2 RENAME TO " + DB_NAME + "");
-//        }
+        if (oldVersion < 2) {
+            createBuckets(db);
+        }
+        if (oldVersion < 3) {
+            // key the 'steps' table by date and move the 'date = -1' row for the
+            // current steps to its own table; duplicate dates are merged so
+            // range sums stay the same
+            createSteps(db, DB_NAME + "2");
+            db.execSQL("INSERT INTO " + DB_NAME + "2 (date, steps) SELECT date, SUM(steps) FROM " +
+                    DB_NAME + " WHERE date <> -1 GROUP BY date");
+            createCurrent(db);
+            db.execSQL("INSERT INTO " + CURRENT + " (id, steps) SELECT 0, steps FROM " +
+                    DB_NAME + " WHERE date = -1 LIMIT 1");
+            db.execSQL("DROP TABLE " + DB_NAME);
+            db.execSQL("ALTER TABLE " + DB_NAME + "2 RENAME TO " + DB_NAME);
+        }
+        if (oldVersion < 4) {
+            createRollups(db);
+        }
+        if (oldVersion < 5 && oldVersion >= 3) {
+            db.execSQL("ALTER TABLE " + CURRENT + " ADD COLUMN counter INTEGER DEFAULT -1");
+        }
+        if (oldVersion < 6) {
+            if (oldVersion >= 3) {
+                db.execSQL("ALTER TABLE " + DB_NAME + " ADD COLUMN week INTEGER");
+                db.execSQL("ALTER TABLE " + DB_NAME + " ADD COLUMN month INTEGER");
+            }
+            // the existing days get the keys of the current timezone, and the
+            // rollups are rebuilt from them
+            Cursor c = db.query(DB_NAME, new String[]{"date"}, null, null, null, null, null);
+            while (c.moveToNext()) {
+                long date = c.getLong(0);
+                db.execSQL("UPDATE " + DB_NAME + " SET week = ?, month = ? WHERE date = ?",
+                        new Object[]{Utility.getWeek(date), Utility.getMonth(date), date});
+            }
+            c.close();
+            db.execSQL("DELETE FROM " + WEEKS);
+            db.execSQL("INSERT INTO " + WEEKS + " (week, steps) SELECT week, SUM(steps) FROM " +
+                    DB_NAME + " GROUP BY week");
+            db.execSQL("DELETE FROM " + MONTHS);
+            db.execSQL("INSERT INTO " + MONTHS + " (month, steps) SELECT month, SUM(steps) FROM " +
+                    DB_NAME + " GROUP BY month");
+        }
+    }
+
+    private void createRollups(final SQLiteDatabase db) {
+        // 'week' is monday 0:00 and 'month' the 1st 0:00 local time in ms since 1970
+        db.execSQL("CREATE TABLE " + WEEKS + " (week INTEGER PRIMARY KEY, steps INTEGER)");
+        db.execSQL("CREATE TABLE " + MONTHS + " (month INTEGER PRIMARY KEY, steps INTEGER)");
+    }
+
+    /**
+     * Adds the change of a day's steps to the week and month stored with it.
+     *
+     * @param date  the date in ms since 1970, its row must exist
+     * @param steps the number of steps added to the date, may be negative
+     */
+    private void addToRollups(long date, int steps) {
+        if (steps == 0) return;
+        execute(INSERT_WEEK, date);
+        execute(ADD_TO_WEEK, steps, date);
+        execute(INSERT_MONTH, date);
+        execute(ADD_TO_MONTH, steps, date);
+    }
+
+    private void execute(int which, long... args) {
+        SQLiteStatement s = statement(which);
+        for (int i = 0; i < args.length; i++) {
+            s.bindLong(i + 1, args[i]);
+        }
+        s.execute();
+        Diagnostics.count(Diagnostics.DB_STATEMENTS);
+    }
+
+    private void createSteps(final SQLiteDatabase db, final String table) {
+        // one row per day, 'date' is the start of the day in ms since 1970, 'week'
+        // and 'month' the keys of its rollups, in the timezone the day was added in
+        db.execSQL("CREATE TABLE " + table +
+                " (date INTEGER PRIMARY KEY, steps INTEGER, week INTEGER, month INTEGER)");
+    }
+
+    private void createCurrent(final SQLiteDatabase db) {
+        // single row (id = 0) holding the current 'steps since boot' value and
+        // the last raw step counter value, -1 if unknown
+        db.execSQL("CREATE TABLE " + CURRENT +
+                " (id INTEGER PRIMARY KEY, steps INTEGER, counter INTEGER DEFAULT -1)");
+    }
+
+    private void createBuckets(final SQLiteDatabase db) {
+        // 'time' is the start of the bucket in ms since 1970, the primary key doubles as index
+        db.execSQL("CREATE TABLE " + BUCKETS + " (time INTEGER PRIMARY KEY, steps INTEGER)");
     }
 
     /**
@@ -106,7 +314,10 @@ public class Database extends SQLiteOpenHelper {
                 values.put("date", date);
                 // use the negative steps as offset
                 values.put("steps", -steps);
+                values.put("week", Utility.getWeek(date));
+                values.put("month", Utility.getMonth(date));
                 getWritableDatabase().insert(DB_NAME, null, values);
+                addToRollups(date, -steps);
             }
             c.close();
             if (BuildConfig.DEBUG) {
@@ -116,6 +327,7 @@ public class Database extends SQLiteOpenHelper {
             getWritableDatabase().setTransactionSuccessful();
         } finally {
             getWritableDatabase().endTransaction();
+            invalidateDates();
         }
     }
 
@@ -125,8 +337,21 @@ public class Database extends SQLiteOpenHelper {
      * @param steps the number of steps to add
      */
     public void addToLastEntry(int steps) {
-        getWritableDatabase().execSQL("UPDATE " + DB_NAME + " SET steps = steps + " + steps +
-                " WHERE date = (SELECT MAX(date) FROM " + DB_NAME + ")");
+        getWritableDatabase().beginTransaction();
+        try {
+            long date = statement(GET_LAST_DATE).simpleQueryForLong();
+            SQLiteStatement s = statement(ADD_TO_LAST_ENTRY);
+            s.bindLong(1, steps);
+            s.bindLong(2, date);
+            int updatedRows = s.executeUpdateDelete();
+            if (updatedRows > 0) {
+                addToRollups(date, steps);
+            }
+            getWritableDatabase().setTransactionSuccessful();
+        } finally {
+            getWritableDatabase().endTransaction();
+            invalidateDates();
+        }
     }
 
     /**
@@ -142,18 +367,23 @@ public class Database extends SQLiteOpenHelper {
         getWritableDatabase().beginTransaction();
         boolean newEntryCreated = false;
         try {
+            int old = getSteps(date);
             ContentValues values = new ContentValues();
             values.put("steps", steps);
             int updatedRows = getWritableDatabase()
                     .update(DB_NAME, values, "date = ?", new String[]{String.valueOf(date)});
             if (updatedRows == 0) {
                 values.put("date", date);
+                values.put("week", Utility.getWeek(date));
+                values.put("month", Utility.getMonth(date));
                 getWritableDatabase().insert(DB_NAME, null, values);
                 newEntryCreated = true;
             }
+            addToRollups(date, old == Integer.MIN_VALUE ? steps : steps - old);
             getWritableDatabase().setTransactionSuccessful();
         } finally {
             getWritableDatabase().endTransaction();
+            invalidateDates();
         }
         return newEntryCreated;
     }
@@ -226,13 +456,25 @@ public class Database extends SQLiteOpenHelper {
      * exist in the database
      */
     public int getSteps(final long date) {
-        Cursor c = getReadableDatabase().query(DB_NAME, new String[]{"steps"}, "date = ?",
-                new String[]{String.valueOf(date)}, null, null, null);
-        c.moveToFirst();
+        int generation;
+        synchronized (cacheLock) {
+            if (date == cachedDate) return cachedDateSteps;
+            generation = cacheGeneration;
+        }
         int re;
-        if (c.getCount() == 0) re = Integer.MIN_VALUE;
-        else re = c.getInt(0);
-        c.close();
+        SQLiteStatement s = statement(GET_STEPS);
+        s.bindLong(1, date);
+        try {
+            re = (int) s.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            re = Integer.MIN_VALUE;
+        }
+        synchronized (cacheLock) {
+            if (generation == cacheGeneration) {
+                cachedDate = date;
+                cachedDateSteps = re;
+            }
+        }
         return re;
     }
 
@@ -268,9 +510,42 @@ public class Database extends SQLiteOpenHelper {
      * entry might have negative value
      */
     public int getSteps(final long start, final long end) {
+        // months lying completely inside the range are read from their rollup,
+        // only the days before and after them are summed up
+        long monthsFrom = Utility.getMonth(start);
+        Calendar c = Calendar.getInstance();
+        if (monthsFrom < start) {
+            c.setTimeInMillis(monthsFrom);
+            c.add(Calendar.MONTH, 1);
+            monthsFrom = c.getTimeInMillis();
+        }
+        // 'end' is the start of the last day, the months end with the day after it
+        c.setTimeInMillis(Utility.getDay(end));
+        c.add(Calendar.DATE, 1);
+        long monthsTo = Utility.getMonth(c.getTimeInMillis());
+        if (monthsFrom >= monthsTo) {
+            return sum(DB_NAME, "date >= ? AND date <= ?", start, end);
+        }
+        // like in getSeries, a month key stored in another timezone counts for
+        // the month starting closest to it; the days around the rollup months
+        // are those whose month key is not one of them
+        long keysFrom = monthsFrom - KEY_TOLERANCE;
+        long keysTo = monthsTo - KEY_TOLERANCE;
+        return sum(MONTHS, "month >= ? AND month < ?", keysFrom, keysTo) +
+                sum(DB_NAME, "date >= ? AND date < ? AND month < ?",
+                        start, monthsFrom + KEY_TOLERANCE, keysFrom) +
+                sum(DB_NAME, "date >= ? AND date <= ? AND month >= ?",
+                        monthsTo - KEY_TOLERANCE, end, keysTo);
+    }
+
+    private int sum(final String table, final String selection, long... args) {
+        String[] selectionArgs = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            selectionArgs[i] = String.valueOf(args[i]);
+        }
         Cursor c = getReadableDatabase()
-                .query(DB_NAME, new String[]{"SUM(steps)"}, "date >= ? AND date <= ?",
-                        new String[]{String.valueOf(start), String.valueOf(end)}, null, null, null);
+                .query(table, new String[]{"SUM(steps)"}, selection, selectionArgs,
+                        null, null, null);
         int re;
         if (c.getCount() == 0) {
             re = 0;
@@ -289,7 +564,7 @@ public class Database extends SQLiteOpenHelper {
      * day as the current offset is likely to be negative
      */
     public void removeNegativeEntries() {
-        getWritableDatabase().delete(DB_NAME, "steps < ?", new String[]{"0"});
+        removeEntries("steps < ?", "0");
     }
 
     /**
@@ -298,7 +573,24 @@ public class Database extends SQLiteOpenHelper {
      * Currently, an invalid input is such with steps >= 200,000
      */
     public void removeInvalidEntries() {
-        getWritableDatabase().delete(DB_NAME, "steps >= ?", new String[]{"200000"});
+        removeEntries("steps >= ?", "200000");
+    }
+
+    private void removeEntries(final String selection, final String arg) {
+        getWritableDatabase().beginTransaction();
+        try {
+            Cursor c = getReadableDatabase().query(DB_NAME, new String[]{"date", "steps"},
+                    selection, new String[]{arg}, null, null, null);
+            while (c.moveToNext()) {
+                addToRollups(c.getLong(0), -c.getInt(1));
+            }
+            c.close();
+            getWritableDatabase().delete(DB_NAME, selection, new String[]{arg});
+            getWritableDatabase().setTransactionSuccessful();
+        } finally {
+            getWritableDatabase().endTransaction();
+            invalidateDates();
+        }
     }
 
     /**
@@ -339,17 +631,31 @@ public class Database extends SQLiteOpenHelper {
     /**
      * Saves the current 'steps since boot' sensor value in the database.
      *
-     * @param steps since boot
+     * @param steps   since boot
+     * @param counter the last raw step counter value, -1 if unknown
      */
-    public void saveCurrentSteps(int steps) {
-        ContentValues values = new ContentValues();
-        values.put("steps", steps);
-        if (getWritableDatabase().update(DB_NAME, values, "date = -1", null) == 0) {
-            values.put("date", -1);
-            getWritableDatabase().insert(DB_NAME, null, values);
-        }
+    public void saveCurrentSteps(int steps, long counter) {
+        SQLiteStatement s = statement(SAVE_CURRENT_STEPS);
+        s.bindLong(1, steps);
+        s.bindLong(2, counter);
+        s.executeInsert();
+        Diagnostics.count(Diagnostics.DB_STATEMENTS);
+        invalidateCurrentSteps();
         if (BuildConfig.DEBUG) {
-            Logger.log("saving steps in db: " + steps);
+            Logger.log("saving steps in db: " + steps + " counter: " + counter);
+        }
+    }
+
+    /**
+     * Reads the last raw step counter value saved with the current steps.
+     *
+     * @return the raw counter value or -1 if there is none
+     */
+    public long getCounter() {
+        try {
+            return statement(GET_COUNTER).simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
         }
     }
 
@@ -360,7 +666,170 @@ public class Database extends SQLiteOpenHelper {
      * is no entry
      */
     public int getCurrentSteps() {
-        int re = getSteps(-1);
-        return re == Integer.MIN_VALUE ? 0 : re;
+        int generation;
+        synchronized (cacheLock) {
+            if (currentStepsCached) return cachedCurrentSteps;
+            generation = cacheGeneration;
+        }
+        int re;
+        try {
+            re = (int) statement(GET_CURRENT_STEPS).simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            re = 0;
+        }
+        synchronized (cacheLock) {
+            if (generation == cacheGeneration) {
+                currentStepsCached = true;
+                cachedCurrentSteps = re;
+            }
+        }
+        return re;
+    }
+
+    /**
+     * Adds steps to the bucket containing the given time.
+     *
+     * @param time  the time the steps were taken in ms since 1970
+     * @param steps the number of steps to add
+     */
+    public void addToBucket(long time, int steps) {
+        long bucket = time - time % BUCKET_LENGTH;
+        SQLiteStatement insert = statement(INSERT_BUCKET);
+        insert.bindLong(1, bucket);
+        insert.executeInsert();
+        SQLiteStatement add = statement(ADD_TO_BUCKET);
+        add.bindLong(1, steps);
+        add.bindLong(2, bucket);
+        add.executeUpdateDelete();
+        Diagnostics.count(Diagnostics.DB_STATEMENTS, 2);
+    }
+
+    /**
+     * Get the start of the oldest bucket, i.e. the time since which steps are
+     * available at bucket resolution.
+     *
+     * @return the start of the oldest bucket in ms since 1970 or Long.MAX_VALUE
+     * if there are no buckets yet
+     */
+    public long getFirstBucket() {
+        Cursor c = getReadableDatabase()
+                .query(BUCKETS, new String[]{"MIN(time)"}, null, null, null, null, null);
+        long re = Long.MAX_VALUE;
+        if (c.moveToFirst() && !c.isNull(0)) re = c.getLong(0);
+        c.close();
+        return re;
+    }
+
+    /**
+     * Get the number of steps taken between 'start' and 'end' at bucket
+     * resolution, i.e. 'start' is rounded down to the start of its bucket.
+     *
+     * @param start start time in ms since 1970 (included)
+     * @param end   end time in ms since 1970 (excluded)
+     * @return the number of steps from 'start' to 'end'
+     */
+    public int getBucketSteps(final long start, final long end) {
+        Cursor c = getReadableDatabase()
+                .query(BUCKETS, new String[]{"SUM(steps)"}, "time >= ? AND time < ?",
+                        new String[]{String.valueOf(start - start % BUCKET_LENGTH),
+                                String.valueOf(end)}, null, null, null);
+        int re = 0;
+        if (c.moveToFirst()) re = c.getInt(0);
+        c.close();
+        return re;
+    }
+
+    /**
+     * Get the steps of every day from 'start' to 'end' in one pass over the
+     * 'steps' table.
+     * <p/>
+     * Note that todays entry might have a negative value, see
+     * {@link #getSteps(long, long)}.
+     *
+     * @param start start date in ms since 1970 (day of this date included)
+     * @param end   end date in ms since 1970 (day of this date included)
+     * @return the steps per day, index 0 being the day of 'start'; days
+     * without an entry are 0
+     */
+    public int[] getDaySeries(final long start, final long end) {
+        return getSeries(DB_NAME, "date", Utility.getDay(start), Utility.getDay(end),
+                Calendar.DATE);
+    }
+
+    /**
+     * Get the steps of every week (starting monday) from 'start' to 'end' in
+     * one pass over the weekly rollup.
+     *
+     * @param start start date in ms since 1970 (week of this date included)
+     * @param end   end date in ms since 1970 (week of this date included)
+     * @return the steps per week, index 0 being the week of 'start'
+     */
+    public int[] getWeekSeries(final long start, final long end) {
+        return getSeries(WEEKS, "week", Utility.getWeek(start), Utility.getWeek(end),
+                Calendar.WEEK_OF_YEAR);
+    }
+
+    /**
+     * Get the steps of every month from 'start' to 'end' in one pass over the
+     * monthly rollup.
+     *
+     * @param start start date in ms since 1970 (month of this date included)
+     * @param end   end date in ms since 1970 (month of this date included)
+     * @return the steps per month, index 0 being the month of 'start'
+     */
+    public int[] getMonthSeries(final long start, final long end) {
+        return getSeries(MONTHS, "month", Utility.getMonth(start), Utility.getMonth(end),
+                Calendar.MONTH);
+    }
+
+    private int[] getSeries(final String table, final String column, final long first,
+                            final long last, final int field) {
+        Calendar key = Utility.getWeekCalendar();
+        key.setTimeInMillis(first);
+        List<Long> keys = new ArrayList<>();
+        while (key.getTimeInMillis() <= last) {
+            keys.add(key.getTimeInMillis());
+            key.add(field, 1);
+        }
+        long end = key.getTimeInMillis();
+        int[] re = new int[keys.size()];
+        // keys stored in another timezone are off by its difference to the
+        // current one, so a row counts for the period starting closest to it
+        Cursor c = getReadableDatabase()
+                .query(table, new String[]{column, "steps"}, column + " >= ? AND " + column + " < ?",
+                        new String[]{String.valueOf(first - KEY_TOLERANCE),
+                                String.valueOf(end - KEY_TOLERANCE)},
+                        null, null, column + " ASC");
+        int i = 0;
+        while (c.moveToNext()) {
+            long time = c.getLong(0);
+            while (i + 1 < re.length && keys.get(i + 1) - KEY_TOLERANCE <= time) i++;
+            if (re.length > 0) re[i] += c.getInt(1);
+        }
+        c.close();
+        return re;
+    }
+
+    /**
+     * Get the steps from 'start' to 'end' summed up per 'length' ms in one
+     * pass over the 'buckets' table.
+     *
+     * @param start  start of the first interval in ms since 1970
+     * @param end    end time in ms since 1970 (excluded)
+     * @param length length of an interval in ms, a multiple of BUCKET_LENGTH
+     * @return the steps per interval, index 0 being the one starting at 'start'
+     */
+    public int[] getBucketSeries(final long start, final long end, final long length) {
+        int[] re = new int[(int) Math.max(0, (end - start + length - 1) / length)];
+        Cursor c = getReadableDatabase()
+                .query(BUCKETS, new String[]{"(time - " + start + ") / " + length, "SUM(steps)"},
+                        "time >= ? AND time < ?",
+                        new String[]{String.valueOf(start), String.valueOf(end)},
+                        "1", null, null);
+        while (c.moveToNext()) {
+            re[c.getInt(0)] = c.getInt(1);
+        }
+        c.close();
+        return re;
     }
 }
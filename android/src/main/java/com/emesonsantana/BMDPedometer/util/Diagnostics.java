@@ -0,0 +1,125 @@
+package com.emesonsantana.BMDPedometer.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of what the native side is doing, read through
+ * BMDPedometerModule.getDiagnostics. While disabled, recording costs a
+ * single volatile read; callers that need to measure time check
+ * {@link #isEnabled()} before reading the clock.
+ */
+public class Diagnostics {
+
+    // counters
+    public final static int SENSOR_EVENTS = 0;
+    public final static int SENSOR_BATCHES = 1;
+    public final static int DETECTOR_SAMPLES = 2;
+    public final static int DB_WRITES = 3;
+    public final static int DB_STATEMENTS = 4;
+    public final static int BROADCASTS = 5;
+    public final static int JS_EMITS = 6;
+    public final static int ALARM_WAKEUPS = 7;
+    public final static int SERVICE_STARTS = 8;
+    public final static int SERVICE_RESTARTS = 9;
+    public final static String[] COUNTERS = {"sensorEvents", "sensorBatches", "detectorSamples",
+            "dbWrites", "dbStatements", "broadcasts", "jsEmits", "alarmWakeups", "serviceStarts",
+            "serviceRestarts"};
+
+    // histograms
+    public final static int BATCH_SIZE = 0; // sensor events per batch
+    public final static int DETECTOR_NS = 1; // detector time per sample of a batch, in ns
+    public final static int DB_WRITE_US = 2; // duration of a write transaction, in microseconds
+    public final static String[] HISTOGRAMS = {"batchSize", "detectorNsPerSample", "dbWriteUs"};
+
+    // bucket i counts the values below 2^i not counted by the bucket before,
+    // the last one also everything above
+    public final static int BUCKETS = 24;
+    private final static int SUM = BUCKETS;
+    private final static int MAX = BUCKETS + 1;
+
+    private static volatile boolean enabled;
+    private static volatile long since;
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private static final AtomicLongArray[] histograms = new AtomicLongArray[HISTOGRAMS.length];
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    private Diagnostics() {
+    }
+
+    /**
+     * Enabling starts over with all values at 0.
+     */
+    public static synchronized void setEnabled(boolean enable) {
+        if (enable && !enabled) {
+            for (int i = 0; i < COUNTERS.length; i++) {
+                counters.set(i, 0);
+            }
+            for (AtomicLongArray histogram : histograms) {
+                for (int i = 0; i < histogram.length(); i++) {
+                    histogram.set(i, 0);
+                }
+            }
+            since = System.currentTimeMillis();
+        }
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the time the values were reset in ms since 1970
+     */
+    public static long getSince() {
+        return since;
+    }
+
+    public static void count(int counter) {
+        if (enabled) counters.incrementAndGet(counter);
+    }
+
+    public static void count(int counter, long n) {
+        if (enabled) counters.addAndGet(counter, n);
+    }
+
+    public static void record(int histogram, long value) {
+        if (!enabled) return;
+        AtomicLongArray h = histograms[histogram];
+        value = Math.max(0, value);
+        h.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+        h.addAndGet(SUM, value);
+        long max;
+        do {
+            max = h.get(MAX);
+        } while (value > max && !h.compareAndSet(MAX, max, value));
+    }
+
+    public static long getCount(int counter) {
+        return counters.get(counter);
+    }
+
+    /**
+     * @return the number of values per bucket
+     */
+    public static long[] getBuckets(int histogram) {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histograms[histogram].get(i);
+        }
+        return buckets;
+    }
+
+    public static long getSum(int histogram) {
+        return histograms[histogram].get(SUM);
+    }
+
+    public static long getMax(int histogram) {
+        return histograms[histogram].get(MAX);
+    }
+}
@@ -9,12 +9,62 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Logs to logcat and, in debug builds, to a file on external storage.
+ * <p/>
+ * Logging only puts the message into a lock-free ring buffer, a background
+ * thread writes them out in batches. The thread parks while the buffer is
+ * empty, the first message into it wakes it up. If the buffer is full,
+ * messages are dropped and counted instead of blocking the caller. Release
+ * builds only log if tracing was enabled with {@link #setTracing(boolean)},
+ * and then to logcat only.
+ */
 public class Logger {
     private static FileWriter fw;
     private static final Date date = new Date();
     private final static String APP = "Pedometer";
 
+    private final static int CAPACITY = 1024; // must be a power of 2
+    private final static int MASK = CAPACITY - 1;
+    // after waking up, the writer waits this long to write the messages in one batch
+    private final static long DRAIN_INTERVAL = 500;
+
+    private static final AtomicReferenceArray<String> messages = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLongArray times = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong head = new AtomicLong(); // next slot to fill
+    private static volatile long tail; // next slot to write, only moved by the writer thread
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean tracing;
+    private static volatile Thread writer;
+    private static volatile boolean parked; // the writer waits for a message to unpark it
+
+    /**
+     * Enables logging in release builds, to logcat only. Debug builds always log.
+     */
+    public static void setTracing(boolean enabled) {
+        tracing = enabled;
+    }
+
+    /**
+     * @return true, if messages are logged; check it before building a
+     * message that is not a constant
+     */
+    public static boolean isEnabled() {
+        return BuildConfig.DEBUG || tracing;
+    }
+
+    /**
+     * @return the number of messages dropped because the buffer was full
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
     public static void log(Throwable ex) {
         log(ex.getMessage());
         for (StackTraceElement ste : ex.getStackTrace()) {
@@ -23,38 +73,113 @@ public class Logger {
     }
 
     public static void log(final Cursor c) {
-        if (!BuildConfig.DEBUG) return;
+        if (!isEnabled()) return;
         c.moveToFirst();
-        String title = "";
+        StringBuilder title = new StringBuilder();
         for (int i = 0; i < c.getColumnCount(); i++)
-            title += c.getColumnName(i) + "\t| ";
-        log(title);
+            title.append(c.getColumnName(i)).append("\t| ");
+        log(title.toString());
         while (!c.isAfterLast()) {
-            title = "";
+            title.setLength(0);
             for (int i = 0; i < c.getColumnCount(); i++)
-                title += c.getString(i) + "\t| ";
-            log(title);
+                title.append(c.getString(i)).append("\t| ");
+            log(title.toString());
             c.moveToNext();
         }
     }
 
-    @SuppressWarnings("deprecation")
     public static void log(String msg) {
-        if (!BuildConfig.DEBUG) return;
+        if (!isEnabled()) return;
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int i = (int) (seq & MASK);
+        times.set(i, System.currentTimeMillis());
+        messages.set(i, msg); // publishes the slot to the writer
+        Thread w = writer;
+        if (w == null) {
+            startWriter();
+        } else if (parked) {
+            LockSupport.unpark(w);
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) return;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long reportedDrops = 0;
+                StringBuilder batch = new StringBuilder();
+                while (true) {
+                    try {
+                        Thread.sleep(DRAIN_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    batch.setLength(0);
+                    drain(batch);
+                    long drops = dropped.get();
+                    if (drops > reportedDrops) {
+                        append(batch, System.currentTimeMillis(),
+                                "dropped " + (drops - reportedDrops) + " log messages");
+                        reportedDrops = drops;
+                    }
+                    if (batch.length() > 0 && BuildConfig.DEBUG) {
+                        write(batch);
+                    }
+                    // set the flag before looking at the ring again: a message
+                    // published after the look sees the flag and unparks us
+                    parked = true;
+                    while (messages.get((int) (tail & MASK)) == null) {
+                        LockSupport.park();
+                        if (Thread.interrupted()) return;
+                    }
+                    parked = false;
+                }
+            }
+        }, "Logger");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    private static void drain(final StringBuilder batch) {
+        while (true) {
+            int i = (int) (tail & MASK);
+            String msg = messages.get(i);
+            if (msg == null) return; // empty, or the slot is not filled yet
+            long time = times.get(i);
+            messages.set(i, null);
+            tail++;
+            append(batch, time, msg);
+        }
+    }
+
+    private static void append(final StringBuilder batch, long time, String msg) {
         android.util.Log.d(APP, msg);
+        date.setTime(time);
+        batch.append(date.toLocaleString()).append(" - ").append(msg).append('\n');
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void write(final StringBuilder batch) {
         try {
             if (fw == null) {
                 fw = new FileWriter(new File(
                         Environment.getExternalStorageDirectory().toString() + "/" + APP + ".txt"),
                         true);
             }
-            date.setTime(System.currentTimeMillis());
-            fw.write(date.toLocaleString() + " - " + msg + "\n");
+            fw.write(batch.toString());
             fw.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
-        // }
     }
 
     protected void finalize() throws Throwable {
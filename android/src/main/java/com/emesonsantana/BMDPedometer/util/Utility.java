@@ -16,6 +16,64 @@ public class Utility {
         return c.getTimeInMillis();
     }
 
+    /**
+     * @param time milliseconds since 1.1.1970
+     * @return milliseconds since 1.1.1970 for 0:00:00 local timezone of the day of 'time'
+     */
+    public static long getDay(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        return c.getTimeInMillis();
+    }
+
+    /**
+     * @param time milliseconds since 1.1.1970
+     * @return milliseconds since 1.1.1970 for monday 0:00:00 local timezone of the week of 'time'
+     */
+    public static long getWeek(long time) {
+        Calendar c = getWeekCalendar();
+        c.setTimeInMillis(getDay(time));
+        c.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+        return c.getTimeInMillis();
+    }
+
+    /**
+     * @param time milliseconds since 1.1.1970
+     * @return milliseconds since 1.1.1970 for the 1st 0:00:00 local timezone of the month of 'time'
+     */
+    public static long getMonth(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(getDay(time));
+        c.set(Calendar.DAY_OF_MONTH, 1);
+        return c.getTimeInMillis();
+    }
+
+    /**
+     * @return a calendar with weeks starting on monday, independent of the locale
+     */
+    public static Calendar getWeekCalendar() {
+        Calendar c = Calendar.getInstance();
+        c.setFirstDayOfWeek(Calendar.MONDAY);
+        return c;
+    }
+
+    /**
+     * @param time milliseconds since 1.1.1970
+     * @return milliseconds since 1.1.1970 for the start of the hour of 'time' in local timezone
+     */
+    public static long getHour(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        return c.getTimeInMillis();
+    }
+
     /**
      * @return milliseconds since 1.1.1970 for tomorrow 0:00:01 local timezone
      */
@@ -29,4 +87,13 @@ public class Utility {
         c.add(Calendar.DATE, 1);
         return c.getTimeInMillis();
     }
+
+    /**
+     * @param steps       the current steps since boot
+     * @param todayOffset the steps stored for today, see Database#getSteps(long)
+     * @return today's steps, 0 if today has no entry yet
+     */
+    public static int getTodaySteps(int steps, int todayOffset) {
+        return todayOffset == Integer.MIN_VALUE ? 0 : steps + todayOffset;
+    }
 }
@@ -0,0 +1,60 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The accuracy of each {@link StepEngines step engine} on the committed
+ * traces of {@link TraceGenerator}, replayed the way {@link StepService}
+ * runs them. Each engine is held to the traces it is meant to handle; the
+ * table in the README lists what it finds on all of them.
+ */
+public class EngineAccuracyTest {
+
+    // largest error per trace as a fraction of the true steps, 0 for an exact count
+    private final static Object[][] VELOCITY = {
+            {"walk-50hz", 0.02},
+            {"run-50hz", 0.02},
+            {"idle-50hz", 0.0},
+    };
+    private final static Object[][] PEAK = {
+            {"walk-50hz", 0.02},
+            {"run-50hz", 0.02},
+            {"gentle-50hz", 0.05},
+            {"idle-50hz", 0.0},
+            {"walk-16hz-batched", 0.02},
+            {"walk-5hz-batched", 0.10},
+    };
+
+    @Test
+    public void velocity() throws IOException {
+        assertAccuracy(StepEngines.VELOCITY, VELOCITY);
+    }
+
+    @Test
+    public void peak() throws IOException {
+        assertAccuracy(StepEngines.PEAK, PEAK);
+    }
+
+    private static void assertAccuracy(final String engine, final Object[][] bounds)
+            throws IOException {
+        Map<String, TestTraces> traces = new HashMap<>();
+        for (TestTraces testTrace : TestTraces.load()) {
+            traces.put(testTrace.name, testTrace);
+        }
+        for (Object[] bound : bounds) {
+            TestTraces testTrace = traces.get(bound[0]);
+            assertTrue(bound[0] + " is missing", testTrace != null);
+            SensorTraceReplay replay = new SensorTraceReplay(engine, "");
+            replay.replay(testTrace.open());
+            assertEquals(engine + " on " + testTrace.name, testTrace.steps, replay.steps,
+                    testTrace.steps * (Double) bound[1]);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FilterChainTest {
+
+    @Test
+    public void rejectsInvalidSpecs() {
+        for (String spec : new String[]{"highpass:0.5", "lowpass", "lowpass:0", "lowpass:x",
+                "decimate:0", "decimate:1.5", "magnitude:1", "median:3", "lowpass:3,,decimate:4"}) {
+            try {
+                FilterChain.parse(spec);
+                fail(spec + " should be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void checksEngineAndFilters() {
+        StepEngines.check(StepEngines.PEAK, FilterChain.parse("magnitude,lowpass:3,decimate:4"));
+        StepEngines.check(StepEngines.VELOCITY, FilterChain.parse("magnitude,lowpass:3"));
+        StepEngines.check(StepEngines.VELOCITY, FilterChain.parse(""));
+        assertRejected("velocity", "lowpass:3,decimate:4");
+        assertRejected("bogus", "");
+        assertRejected(null, "");
+    }
+
+    @Test
+    public void scalarLowpassFiltersZLikeAnyAxis() {
+        Random random = new Random(1);
+        int n = 200;
+        long[] time = new long[n];
+        float[] xyz = new float[n * 3];
+        for (int i = 0; i < n; i++) {
+            // a gap in the middle restarts the filters
+            time[i] = 1000000000000L + i * 20000000L + (i >= 120 ? 3000000000L : 0);
+            xyz[i * 3 + 2] = (float) (9.81 + random.nextGaussian() * 3);
+        }
+        long[] scalarTime = time.clone();
+        float[] scalar = xyz.clone();
+        new FilterChain.Biquad(3, true).process(scalarTime, scalar, n);
+        new FilterChain.Biquad(3, false).process(time, xyz, n);
+        assertArrayEquals(xyz, scalar, 0);
+        assertEquals(0, scalar[3 * 100], 0); // x untouched
+    }
+
+    @Test
+    public void decimationCountsOnAcrossBursts() {
+        FilterChain.Decimation decimation = new FilterChain.Decimation(4);
+        int next = 0;
+        int expected = 0;
+        for (int size : new int[]{3, 5, 1, 7, 4, 9}) {
+            long[] time = new long[size];
+            float[] xyz = new float[size * 3];
+            for (int i = 0; i < size; i++) {
+                time[i] = next++;
+            }
+            int kept = decimation.process(time, xyz, size);
+            for (int i = 0; i < kept; i++) {
+                assertEquals(expected, time[i]);
+                expected += 4;
+            }
+        }
+        assertEquals(32, expected); // samples 0, 4, ..., 28 of 29
+    }
+
+    @Test
+    public void peakCountsThroughDecimation() throws IOException {
+        for (TestTraces testTrace : TestTraces.load()) {
+            if (!testTrace.name.equals("walk-50hz")) continue;
+            SensorTraceReplay replay = new SensorTraceReplay(StepEngines.PEAK, "magnitude,lowpass:3,decimate:4");
+            replay.replay(testTrace.open());
+            assertEquals(testTrace.steps, replay.steps, testTrace.steps * 0.02);
+            return;
+        }
+        fail("walk-50hz is missing");
+    }
+
+    private static void assertRejected(final String engine, final String filters) {
+        try {
+            StepEngines.check(engine, FilterChain.parse(filters));
+            fail(engine + " with '" + filters + "' should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
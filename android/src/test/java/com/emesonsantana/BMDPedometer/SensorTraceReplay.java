@@ -0,0 +1,92 @@
+package com.emesonsantana.BMDPedometer;
+
+/**
+ * Replays a {@link SensorTrace} through the {@link StepPipeline} of
+ * {@link StepService}, on the clock of the trace and as fast as possible:
+ * events go in at their delivery time, a burst is processed when the
+ * pipeline says so, on a completed flush, or when its settle timeout would
+ * have fired. The steps are booked per minute like the StepWriter does.
+ */
+class SensorTraceReplay implements StepPipeline.Listener {
+
+    final StepPipeline pipeline = new StepPipeline(this);
+    final StepBuckets buckets = new StepBuckets();
+
+    int steps;
+    int stepDetectorEvents;
+    int events;
+    int samples;
+    int bursts;
+    long processNanos; // spent processing bursts: filters, engine and booking
+    long firstTimestamp = Long.MIN_VALUE;
+    long lastTimestamp;
+
+    private SensorTrace trace;
+    private boolean burstOpen;
+    private long burstDeadline = Long.MAX_VALUE; // delivery time the settle timeout fires at
+
+    /**
+     * @param engine  the {@link StepEngines step engine}
+     * @param filters the {@link FilterChain} in front of it
+     * @throws IllegalArgumentException if the filters are invalid or do not suit the engine
+     */
+    SensorTraceReplay(final String engine, final String filters) {
+        pipeline.configure(engine, filters);
+    }
+
+    void replay(final SensorTrace trace) {
+        this.trace = trace;
+        while (trace.next()) {
+            int type = trace.getType();
+            long delivery = trace.getDeliveryTime();
+            if (delivery >= burstDeadline) {
+                processBurst();
+            }
+            events++;
+            if (type == SensorTrace.TYPE_FLUSH_COMPLETED) {
+                // all events of the FIFO are in
+                processBurst();
+                continue;
+            }
+            if (firstTimestamp == Long.MIN_VALUE) {
+                firstTimestamp = trace.getTimestamp();
+            }
+            lastTimestamp = trace.getTimestamp();
+            if (type == StepPipeline.TYPE_STEP_DETECTOR) {
+                stepDetectorEvents++;
+                pipeline.addLiveStep();
+                continue;
+            } else if (type != StepPipeline.TYPE_STEP_COUNTER && type != StepPipeline.TYPE_ACCELEROMETER) {
+                continue;
+            }
+            if (type == StepPipeline.TYPE_ACCELEROMETER) {
+                samples++;
+            }
+            burstOpen = true;
+            if (!pipeline.add(type, trace.getTimestamp(), trace.getValues(), delivery)) {
+                if (burstDeadline == Long.MAX_VALUE) {
+                    burstDeadline = delivery + StepPipeline.BURST_SETTLE_NS;
+                }
+                continue;
+            }
+            processBurst();
+        }
+        processBurst();
+    }
+
+    private void processBurst() {
+        burstDeadline = Long.MAX_VALUE;
+        if (!burstOpen) return;
+        burstOpen = false;
+        bursts++;
+        long start = System.nanoTime();
+        pipeline.processBurst();
+        processNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void onSteps(int steps, long timestamp) {
+        this.steps += steps;
+        buckets.add(trace.toWallTime(timestamp), steps);
+    }
+}
@@ -0,0 +1,85 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the committed traces through the {@link StepPipeline} the way
+ * {@link StepService} drives it.
+ */
+public class SensorTraceReplayTest {
+
+    @Test
+    public void burstsLoseNoSamples() throws IOException {
+        // bursts hand the engine the same samples in the same order as live delivery
+        for (TestTraces testTrace : TestTraces.loadAccelerometer()) {
+            for (String engine : new String[]{StepEngines.VELOCITY, StepEngines.PEAK}) {
+                StepEngine direct = StepEngines.create(engine);
+                SensorTrace trace = testTrace.open();
+                long[] t = new long[1];
+                int expected = 0;
+                while (trace.next()) {
+                    if (trace.getType() != TestTraces.TYPE_ACCELEROMETER) continue;
+                    t[0] = trace.getTimestamp();
+                    expected += direct.updateAccelBatch(t, trace.getValues().clone(), 1);
+                }
+                SensorTraceReplay replay = replay(testTrace, engine);
+                assertEquals(testTrace.name + " " + engine, expected, replay.steps);
+            }
+        }
+    }
+
+    @Test
+    public void bucketsAddUpToTheSteps() throws IOException {
+        for (TestTraces testTrace : TestTraces.load()) {
+            SensorTraceReplay replay = replay(testTrace, StepEngines.PEAK);
+            int booked = 0;
+            for (int steps : replay.buckets.getSteps()) {
+                booked += steps;
+            }
+            assertEquals(testTrace.name, replay.steps, booked);
+            long[] times = replay.buckets.getTimes();
+            for (int i = 1; i < times.length; i++) {
+                assertTrue(testTrace.name + " buckets in order", times[i] > times[i - 1]);
+            }
+        }
+    }
+
+    @Test
+    public void walkingAccuracy() throws IOException {
+        for (TestTraces testTrace : TestTraces.load()) {
+            if (!testTrace.name.equals("walk-50hz")) continue;
+            SensorTraceReplay replay = replay(testTrace, StepEngines.DEFAULT);
+            assertEquals(testTrace.name, testTrace.steps, replay.steps, testTrace.steps * 0.02);
+            assertTrue(testTrace.name + " spans minutes", replay.buckets.size() > 1);
+            return;
+        }
+        throw new AssertionError("walk-50hz is missing");
+    }
+
+    @Test
+    public void counterStepsAreBookedOnce() throws IOException {
+        for (TestTraces testTrace : TestTraces.load()) {
+            if (!testTrace.name.equals("counter-batched")) continue;
+            SensorTraceReplay replay = replay(testTrace, StepEngines.DEFAULT);
+            assertEquals(testTrace.name, testTrace.steps, replay.steps);
+            assertTrue("step detector events", replay.stepDetectorEvents > 0);
+            assertTrue("batched", replay.bursts > 1 && replay.bursts < replay.events / 2);
+            // the counter caught up with every step the detector showed
+            assertEquals("live steps", 0, replay.pipeline.getLiveSteps());
+            return;
+        }
+        throw new AssertionError("counter-batched is missing");
+    }
+
+    private static SensorTraceReplay replay(final TestTraces testTrace, final String engine)
+            throws IOException {
+        SensorTraceReplay replay = new SensorTraceReplay(engine, "");
+        replay.replay(testTrace.open());
+        return replay;
+    }
+}
@@ -0,0 +1,67 @@
+package com.emesonsantana.BMDPedometer;
+
+import com.emesonsantana.BMDPedometer.util.Utility;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batches totals the way {@link BMDPedometerModule} does: seeded from the
+ * database, then fed the totals of {@link StepService}.
+ */
+public class StepBatchTest {
+
+    @Test
+    public void deltasAddUpToTheSteps() {
+        // 8000 steps since boot, 1500 of them today
+        int sinceBoot = 8000;
+        int todayOffset = -6500;
+        StepBatch batch = new StepBatch();
+        int seed = Utility.getTodaySteps(sinceBoot, todayOffset);
+        assertEquals(1500, seed);
+        batch.add(0, seed);
+
+        int walked = 0;
+        int sum = 0;
+        long time = 0;
+        for (int burst : new int[]{12, 3, 40, 1, 0, 25, 7}) {
+            sinceBoot += burst;
+            walked += burst;
+            batch.add(time += 1000, Utility.getTodaySteps(sinceBoot, todayOffset));
+            if (batch.size() == 3) {
+                sum += drain(batch);
+            }
+        }
+        sum += drain(batch);
+        assertEquals(walked, sum);
+        assertEquals(seed + walked, batch.getTotal());
+    }
+
+    @Test
+    public void resetStartsANewBaseline() {
+        StepBatch batch = new StepBatch();
+        batch.add(0, 100);
+        batch.add(1, 110);
+        batch.reset();
+        assertTrue(batch.add(2, 500));
+        assertEquals(0, batch.getDelta(0));
+        batch.add(3, 504);
+        assertEquals(4, batch.getDelta(1));
+    }
+
+    @Test
+    public void todayWithoutEntryHasNoSteps() {
+        assertEquals(0, Utility.getTodaySteps(8000, Integer.MIN_VALUE));
+    }
+
+    private static int drain(final StepBatch batch) {
+        int sum = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            sum += batch.getDelta(i);
+        }
+        batch.clear();
+        return sum;
+    }
+}
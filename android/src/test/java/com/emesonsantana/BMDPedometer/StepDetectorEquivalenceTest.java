@@ -0,0 +1,57 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link StepDetector} keeps running sums of its rings instead of summing
+ * them on every sample; it must still decide on the same samples as the
+ * {@link LegacyStepDetector} it replaced.
+ */
+public class StepDetectorEquivalenceTest {
+
+    @Test
+    public void sameStepsOnTraces() throws IOException {
+        for (TestTraces testTrace : TestTraces.loadAccelerometer()) {
+            LegacyStepDetector legacy = new LegacyStepDetector();
+            StepDetector current = new StepDetector();
+            SensorTrace trace = testTrace.open();
+            int sample = 0;
+            while (trace.next()) {
+                if (trace.getType() != TestTraces.TYPE_ACCELEROMETER) continue;
+                float[] v = trace.getValues();
+                long t = trace.getTimestamp();
+                assertEquals(testTrace.name + " sample " + sample,
+                        legacy.updateAccel(t, v[0], v[1], v[2]),
+                        current.updateAccel(t, v[0], v[1], v[2]));
+                sample++;
+            }
+            assertTrue(testTrace.name + " has no samples", sample > 0);
+        }
+    }
+
+    @Test
+    public void sameStepsOverAnHourOfNoise() {
+        // large, noisy values over many ring wraps, where rounding drift of the sums would show
+        Random random = new Random(42);
+        LegacyStepDetector legacy = new LegacyStepDetector();
+        StepDetector current = new StepDetector();
+        long t = 0;
+        int steps = 0;
+        for (int i = 0; i < 50 * 3600; i++) {
+            t += 20000000;
+            float x = (float) (random.nextGaussian() * 12);
+            float y = (float) (random.nextGaussian() * 12);
+            float z = (float) (9.81 + random.nextGaussian() * 12);
+            int expected = legacy.updateAccel(t, x, y, z);
+            assertEquals("sample " + i, expected, current.updateAccel(t, x, y, z));
+            steps += expected;
+        }
+        assertTrue("the noise should produce steps", steps > 0);
+    }
+}
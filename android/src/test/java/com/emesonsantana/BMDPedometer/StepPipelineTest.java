@@ -0,0 +1,84 @@
+package com.emesonsantana.BMDPedometer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Steps of a burst reach the listener at the time they were taken, not at
+ * the time the burst was delivered.
+ */
+public class StepPipelineTest {
+    private final static long SECOND = 1000000000L;
+    private final static long START = 1000 * SECOND;
+
+    private final List<Long> timestamps = new ArrayList<>();
+    private final StepPipeline pipeline = new StepPipeline(new StepPipeline.Listener() {
+        @Override
+        public void onSteps(int steps, long timestamp) {
+            for (int i = 0; i < steps; i++) {
+                timestamps.add(timestamp);
+            }
+        }
+    });
+
+    @Test
+    public void counterStepsAtTheirEvents() {
+        // ten minutes of counter events, 10 steps every 10 s, flushed at once
+        long now = START + 600 * SECOND;
+        assertFalse(pipeline.add(StepPipeline.TYPE_STEP_COUNTER, START,
+                new float[]{5000}, now));
+        for (int i = 1; i <= 60; i++) {
+            pipeline.add(StepPipeline.TYPE_STEP_COUNTER, START + i * 10 * SECOND,
+                    new float[]{5000 + i * 10}, now);
+        }
+        assertEquals(600, pipeline.processBurst());
+
+        int[] perMinute = new int[10];
+        for (long timestamp : timestamps) {
+            perMinute[(int) Math.min(9, (timestamp - START - 1) / (60 * SECOND))]++;
+        }
+        assertArrayEquals(new int[]{60, 60, 60, 60, 60, 60, 60, 60, 60, 60}, perMinute);
+    }
+
+    @Test
+    public void detectedStepsAtTheirSamples() throws IOException {
+        for (TestTraces testTrace : TestTraces.load()) {
+            if (!testTrace.name.equals("walk-50hz")) continue;
+            // the engine on its own, sample by sample
+            List<Long> expected = new ArrayList<>();
+            StepEngine engine = StepEngines.create(StepEngines.PEAK);
+            long[] t = new long[1];
+            SensorTrace trace = testTrace.open();
+            while (trace.next()) {
+                if (trace.getType() != StepPipeline.TYPE_ACCELEROMETER) continue;
+                t[0] = trace.getTimestamp();
+                if (engine.updateAccelBatch(t, trace.getValues().clone(), 1) > 0) {
+                    expected.add(t[0]);
+                }
+            }
+            // the same samples in bursts delivered long after they were taken
+            pipeline.configure(StepEngines.PEAK, "");
+            trace = testTrace.open();
+            int steps = 0;
+            while (trace.next()) {
+                if (trace.getType() != StepPipeline.TYPE_ACCELEROMETER) continue;
+                if (pipeline.add(trace.getType(), trace.getTimestamp(), trace.getValues(),
+                        Long.MAX_VALUE)) {
+                    steps += pipeline.processBurst();
+                }
+            }
+            steps += pipeline.processBurst();
+            assertEquals(expected.size(), steps);
+            assertEquals(expected, timestamps);
+            return;
+        }
+        throw new AssertionError("walk-50hz is missing");
+    }
+}
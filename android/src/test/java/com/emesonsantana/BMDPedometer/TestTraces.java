@@ -0,0 +1,94 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The traces written by {@link TraceGenerator}, loaded from the test resources.
+ */
+class TestTraces {
+    // android.hardware.Sensor.TYPE_ACCELEROMETER
+    final static int TYPE_ACCELEROMETER = 1;
+
+    final String name;
+    final int steps; // true number of steps
+    private final ByteBuffer content;
+
+    private TestTraces(final String name, int steps, final ByteBuffer content) {
+        this.name = name;
+        this.steps = steps;
+        this.content = content;
+    }
+
+    /**
+     * @return a reader positioned at the first event
+     */
+    SensorTrace open() throws IOException {
+        return SensorTrace.wrap(content);
+    }
+
+    static List<TestTraces> load() throws IOException {
+        List<TestTraces> traces = new ArrayList<>();
+        BufferedReader index = new BufferedReader(new InputStreamReader(resource("traces.txt"), "UTF-8"));
+        try {
+            String line;
+            while ((line = index.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 2) continue;
+                traces.add(new TestTraces(fields[0], Integer.parseInt(fields[1]),
+                        ByteBuffer.wrap(read(resource(fields[0] + ".bin")))));
+            }
+        } finally {
+            index.close();
+        }
+        if (traces.isEmpty()) {
+            throw new IOException("no traces in traces.txt");
+        }
+        return traces;
+    }
+
+    /**
+     * @return the traces with accelerometer samples, not the step counter ones
+     */
+    static List<TestTraces> loadAccelerometer() throws IOException {
+        List<TestTraces> traces = new ArrayList<>();
+        for (TestTraces testTrace : load()) {
+            SensorTrace trace = testTrace.open();
+            while (trace.next()) {
+                if (trace.getType() == TYPE_ACCELEROMETER) {
+                    traces.add(testTrace);
+                    break;
+                }
+            }
+        }
+        return traces;
+    }
+
+    private static InputStream resource(final String name) throws IOException {
+        InputStream in = TestTraces.class.getResourceAsStream("/traces/" + name);
+        if (in == null) {
+            throw new IOException("missing test resource traces/" + name);
+        }
+        return in;
+    }
+
+    private static byte[] read(final InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.emesonsantana.BMDPedometer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes the synthetic {@link SensorTrace}s in src/test/resources/traces,
+ * with the true number of steps of each in traces.txt. After changing a
+ * profile, run it with the test classes on the class path and the
+ * directory to write to as argument, and commit the traces.
+ * <p/>
+ * A trace is a tilted device carried while walking for the middle 80% of
+ * the time and lying still before and after. Walking adds a vertical
+ * oscillation at the cadence, with its second harmonic, a sideways sway at
+ * half the cadence, a slow cadence drift and sensor noise. Traces with a
+ * batch length are delivered in FIFO bursts like in the background.
+ * <p/>
+ * Step counter traces hold the events of a hardware step counter instead:
+ * its value at every step, delivered in batches each followed by a completed
+ * flush, and for the first half of the trace step detector events delivered
+ * right away, like while somebody watches.
+ */
+public class TraceGenerator {
+
+    private final static long START_TIMESTAMP = 1000000000000L;
+    private final static long START_WALL_TIME = 1700000000000L;
+    private final static double GRAVITY = 9.81;
+    private final static double NOISE = 0.15;
+
+    public static class Profile {
+        public final String name;
+        final double rate; // Hz
+        final double cadence; // steps per second, 0 for none
+        final double amplitude; // m/s^2
+        final double seconds;
+        final long seed;
+        final long batchNs; // 0 for live delivery
+        final boolean counter; // step counter and detector events instead of the accelerometer
+
+        Profile(String name, double rate, double cadence, double amplitude, double seconds,
+                long seed, long batchNs) {
+            this(name, rate, cadence, amplitude, seconds, seed, batchNs, false);
+        }
+
+        Profile(String name, double rate, double cadence, double amplitude, double seconds,
+                long seed, long batchNs, boolean counter) {
+            this.name = name;
+            this.rate = rate;
+            this.cadence = cadence;
+            this.amplitude = amplitude;
+            this.seconds = seconds;
+            this.seed = seed;
+            this.batchNs = batchNs;
+            this.counter = counter;
+        }
+    }
+
+    public final static Profile[] PROFILES = {
+            new Profile("walk-50hz", 50, 1.8, 3, 90, 1, 0),
+            new Profile("run-50hz", 50, 2.8, 10, 60, 2, 0),
+            new Profile("gentle-50hz", 50, 1.6, 1.5, 90, 3, 0),
+            new Profile("idle-50hz", 50, 0, 0, 60, 4, 0),
+            new Profile("walk-16hz-batched", 16, 1.8, 3, 120, 5, 10000000000L),
+            new Profile("walk-5hz-batched", 5, 2.0, 5, 240, 6, 10000000000L),
+            new Profile("counter-batched", 50, 1.8, 0, 180, 7, 10000000000L, true),
+    };
+
+    private static class Event {
+        final int type;
+        final long timestamp;
+        final long delivery;
+        final float value;
+
+        Event(int type, long timestamp, long delivery, float value) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.delivery = delivery;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @return the true number of steps in the trace
+     */
+    public static int write(final Profile profile, final File file) throws IOException {
+        if (profile.counter) {
+            return writeCounter(profile, file);
+        }
+        Random random = new Random(profile.seed);
+        double tilt = random.nextDouble() * 1.2;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double ux = StrictMath.sin(tilt) * StrictMath.cos(heading);
+        double uy = StrictMath.sin(tilt) * StrictMath.sin(heading);
+        double uz = StrictMath.cos(tilt);
+
+        SensorTraceRecorder recorder = new SensorTraceRecorder(file, START_WALL_TIME, START_TIMESTAMP);
+        long interval = (long) (1e9 / profile.rate);
+        long n = (long) (profile.seconds * profile.rate);
+        double phase = 0;
+        int steps = 0;
+        float[] values = new float[3];
+        for (long i = 0; i < n; i++) {
+            double t = i / profile.rate;
+            double vertical = 0;
+            double side = 0;
+            if (profile.cadence > 0 && t > profile.seconds * 0.1 && t < profile.seconds * 0.9) {
+                double previous = phase;
+                phase += profile.cadence * (1 + 0.05 * StrictMath.sin(t / 7)) / profile.rate;
+                if (Math.floor(phase) > Math.floor(previous)) {
+                    steps++;
+                }
+                double p = 2 * Math.PI * phase;
+                vertical = profile.amplitude * (StrictMath.sin(p) + 0.3 * StrictMath.sin(2 * p + 0.5));
+                side = 0.3 * profile.amplitude * StrictMath.sin(p / 2);
+            } else if (profile.cadence == 0 && (i / (long) profile.rate) % 20 == 7) {
+                // lying still, but nudged now and then
+                vertical = 0.8 * StrictMath.sin(2 * Math.PI * 3 * t);
+            }
+            double g = GRAVITY + vertical;
+            values[0] = (float) (g * ux + side * uz + random.nextGaussian() * NOISE);
+            values[1] = (float) (g * uy + random.nextGaussian() * NOISE);
+            values[2] = (float) (g * uz - side * ux + random.nextGaussian() * NOISE);
+            long timestamp = START_TIMESTAMP + i * interval;
+            long delivery = profile.batchNs == 0 ? timestamp + 5000000 :
+                    START_TIMESTAMP + ((timestamp - START_TIMESTAMP) / profile.batchNs + 1) * profile.batchNs;
+            recorder.record(1, timestamp, delivery, values);
+        }
+        recorder.close();
+        return steps;
+    }
+
+    private static int writeCounter(final Profile profile, final File file) throws IOException {
+        Random random = new Random(profile.seed);
+        long interval = (long) (1e9 / profile.rate);
+        long n = (long) (profile.seconds * profile.rate);
+        long counter = 5000 + random.nextInt(100000); // steps since boot
+        List<Event> events = new ArrayList<>();
+        // the value at registration, only the baseline
+        events.add(new Event(StepPipeline.TYPE_STEP_COUNTER, START_TIMESTAMP,
+                batchEnd(profile, START_TIMESTAMP), counter));
+        double phase = 0;
+        int steps = 0;
+        for (long i = 1; i < n; i++) {
+            double t = i / profile.rate;
+            if (t <= profile.seconds * 0.1 || t >= profile.seconds * 0.9) continue;
+            double previous = phase;
+            phase += profile.cadence * (1 + 0.05 * StrictMath.sin(t / 7)) / profile.rate;
+            if (Math.floor(phase) == Math.floor(previous)) continue;
+            steps++;
+            counter++;
+            long timestamp = START_TIMESTAMP + i * interval;
+            events.add(new Event(StepPipeline.TYPE_STEP_COUNTER, timestamp,
+                    batchEnd(profile, timestamp), counter));
+            if (t < profile.seconds / 2) {
+                events.add(new Event(StepPipeline.TYPE_STEP_DETECTOR, timestamp,
+                        timestamp + 5000000, 1));
+            }
+        }
+        for (long end = START_TIMESTAMP + profile.batchNs;
+             end <= START_TIMESTAMP + (long) (profile.seconds * 1e9); end += profile.batchNs) {
+            events.add(new Event(SensorTrace.TYPE_FLUSH_COMPLETED, end, end, 0));
+        }
+        // in the order of delivery, a batch before the flush completing it
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(final Event a, final Event b) {
+                if (a.delivery != b.delivery) return a.delivery < b.delivery ? -1 : 1;
+                boolean aFlush = a.type == SensorTrace.TYPE_FLUSH_COMPLETED;
+                boolean bFlush = b.type == SensorTrace.TYPE_FLUSH_COMPLETED;
+                return aFlush == bFlush ? 0 : aFlush ? 1 : -1;
+            }
+        });
+        SensorTraceRecorder recorder = new SensorTraceRecorder(file, START_WALL_TIME, START_TIMESTAMP);
+        float[] values = new float[3];
+        for (Event event : events) {
+            values[0] = event.value;
+            recorder.record(event.type, event.timestamp, event.delivery, values);
+        }
+        recorder.close();
+        return steps;
+    }
+
+    private static long batchEnd(final Profile profile, long timestamp) {
+        return START_TIMESTAMP + ((timestamp - START_TIMESTAMP) / profile.batchNs + 1) * profile.batchNs;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "src/test/resources/traces");
+        Writer index = new FileWriter(new File(dir, "traces.txt"));
+        try {
+            for (Profile profile : PROFILES) {
+                int steps = write(profile, new File(dir, profile.name + ".bin"));
+                index.write(profile.name + " " + steps + "\n");
+            }
+        } finally {
+            index.close();
+        }
+    }
+}
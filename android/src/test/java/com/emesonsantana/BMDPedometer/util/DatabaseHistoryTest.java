@@ -0,0 +1,121 @@
+package com.emesonsantana.BMDPedometer.util;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.Calendar;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the hot queries with about 1 and then about 10 years of daily rows:
+ * keyed by date and rolled up per month, their cost must not grow with the
+ * history. Each query is timed as the best of several rounds, the ratio
+ * allows for the noise of a shared machine.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DatabaseHistoryTest {
+    private final static int CALLS = 200;
+    private final static int ROUNDS = 7;
+    private final static double MAX_GROWTH = 2.5;
+
+    @After
+    public void forgetInstance() throws Exception {
+        Field instance = Database.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    @Test
+    public void queriesStayFlatOverTenYears() {
+        Database db = Database.getInstance(RuntimeEnvironment.application);
+        try {
+            Calendar day = Calendar.getInstance();
+            day.clear();
+            day.set(2030, Calendar.JANUARY, 1);
+            long today = day.getTimeInMillis();
+            // the last year before 'today', then the nine before it
+            addDays(db, today, 365, 0);
+            time(db, today); // warm up
+            long[] oneYear = time(db, today);
+            addDays(db, today, 3650, 365);
+            long[] tenYears = time(db, today);
+
+            String[] names = {"getSteps(date)", "getSteps(start, end)", "addToLastEntry"};
+            for (int i = 0; i < names.length; i++) {
+                System.out.println(String.format(Locale.US, "%s: 1 year %d ns, 10 years %d ns",
+                        names[i], oneYear[i], tenYears[i]));
+            }
+            for (int i = 0; i < names.length; i++) {
+                assertTrue(names[i] + " grows with the history",
+                        tenYears[i] < oneYear[i] * MAX_GROWTH);
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Adds the days from 'to' days before 'today' up to 'from' days before it,
+     * oldest first, and 'today' itself if 'from' is 0.
+     */
+    private static void addDays(final Database db, long today, int to, int from) {
+        SQLiteDatabase sql = db.getWritableDatabase();
+        sql.beginTransaction();
+        try {
+            Calendar day = Calendar.getInstance();
+            for (int i = to; i >= from; i--) {
+                day.setTimeInMillis(today);
+                day.add(Calendar.DATE, -i);
+                db.insertDayFromBackup(day.getTimeInMillis(), 5000 + i % 3000);
+            }
+            sql.setTransactionSuccessful();
+        } finally {
+            sql.endTransaction();
+        }
+    }
+
+    /**
+     * @return the best time per call in ns of getSteps(date), of
+     * getSteps(start, end) over the last year and of addToLastEntry
+     */
+    private static long[] time(final Database db, long today) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(today);
+        c.add(Calendar.DATE, -364);
+        long yearAgo = c.getTimeInMillis();
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                // two dates in turn, so the cache of the last date doesn't answer
+                sink += db.getSteps((i & 1) == 0 ? today : yearAgo);
+            }
+            best[0] = Math.min(best[0], (System.nanoTime() - start) / CALLS);
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                sink += db.getSteps(yearAgo, today);
+            }
+            best[1] = Math.min(best[1], (System.nanoTime() - start) / CALLS);
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                db.addToLastEntry(1);
+            }
+            best[2] = Math.min(best[2], (System.nanoTime() - start) / CALLS);
+        }
+        assertTrue(sink != 0);
+        return best;
+    }
+}
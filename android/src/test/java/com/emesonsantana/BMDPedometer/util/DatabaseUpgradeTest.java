@@ -0,0 +1,172 @@
+package com.emesonsantana.BMDPedometer.util;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades a database as version 1 wrote it to the current version, reads
+ * ranges of whole months from the rollups, and reads next to a write
+ * transaction.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DatabaseUpgradeTest {
+
+    @After
+    public void forgetInstance() throws Exception {
+        // every test has its own application and database file
+        Field instance = Database.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, null);
+    }
+
+    private static long date(int year, int month, int day) {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(year, month, day);
+        return c.getTimeInMillis();
+    }
+
+    @Test
+    public void upgradeFromVersion1() {
+        // wednesday, thursday and friday of one week, the friday in the next
+        // month, and the tuesday of the week after
+        long wednesday = date(2019, Calendar.JANUARY, 30);
+        long thursday = date(2019, Calendar.JANUARY, 31);
+        long friday = date(2019, Calendar.FEBRUARY, 1);
+        long tuesday = date(2019, Calendar.FEBRUARY, 5);
+
+        Context context = RuntimeEnvironment.application;
+        File file = context.getDatabasePath("steps");
+        file.getParentFile().mkdirs();
+        SQLiteDatabase v1 = SQLiteDatabase.openOrCreateDatabase(file, null);
+        // version 1 had no key on 'date': days could be inserted twice, and
+        // the current steps were kept in a row with 'date = -1'
+        v1.execSQL("CREATE TABLE steps (date INTEGER, steps INTEGER)");
+        Object[][] rows = {
+                {wednesday, 1000}, {wednesday, 500},
+                {thursday, 2000},
+                {-1, 4321},
+                {friday, 300}, {friday, 200},
+                {tuesday, 700},
+        };
+        for (Object[] row : rows) {
+            v1.execSQL("INSERT INTO steps (date, steps) VALUES (?, ?)", row);
+        }
+        v1.setVersion(1);
+        v1.close();
+
+        Database db = Database.getInstance(context);
+        try {
+            // duplicate days are merged, the current steps moved to their own table
+            assertEquals(1500, db.getSteps(wednesday));
+            assertEquals(2000, db.getSteps(thursday));
+            assertEquals(500, db.getSteps(friday));
+            assertEquals(700, db.getSteps(tuesday));
+            assertEquals(Integer.MIN_VALUE, db.getSteps(-1));
+            assertEquals(4000, db.getSteps(wednesday, friday));
+            assertEquals(4321, db.getCurrentSteps());
+            // the raw step counter value is unknown
+            assertEquals(-1, db.getCounter());
+
+            Cursor c = db.getReadableDatabase().query("steps", new String[]{"COUNT(*)"}, null,
+                    null, null, null, null);
+            c.moveToFirst();
+            assertEquals(4, c.getInt(0));
+            c.close();
+
+            assertArrayEquals(new int[]{4000, 700}, db.getWeekSeries(wednesday, tuesday));
+            assertArrayEquals(new int[]{3500, 1200}, db.getMonthSeries(wednesday, tuesday));
+
+            // the rollups keep following changes to the migrated days
+            db.addToLastEntry(50);
+            assertEquals(750, db.getSteps(tuesday));
+            assertArrayEquals(new int[]{4000, 750}, db.getWeekSeries(wednesday, tuesday));
+            assertArrayEquals(new int[]{3500, 1250}, db.getMonthSeries(wednesday, tuesday));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void rangesOfMonthsInAnotherTimezone() {
+        TimeZone timeZone = TimeZone.getDefault();
+        Database db = Database.getInstance(RuntimeEnvironment.application);
+        try {
+            // the days are added one hour east of where they are read, so the
+            // 1st of a month is stored with the key 23:00 of the day before
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT+01:00"));
+            long[] days = {
+                    date(2020, Calendar.JANUARY, 31),
+                    date(2020, Calendar.FEBRUARY, 1), date(2020, Calendar.FEBRUARY, 29),
+                    date(2020, Calendar.MARCH, 1), date(2020, Calendar.MARCH, 31),
+                    date(2020, Calendar.APRIL, 1)
+            };
+            for (int i = 0; i < days.length; i++) {
+                db.insertDayFromBackup(days[i], 1 << i);
+            }
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+
+            assertEquals(2 + 4, db.getSteps(date(2020, Calendar.FEBRUARY, 1),
+                    date(2020, Calendar.FEBRUARY, 29)));
+            assertEquals(8 + 16 + 32, db.getSteps(date(2020, Calendar.MARCH, 1),
+                    date(2020, Calendar.APRIL, 30)));
+            assertEquals(2 + 4 + 8 + 16, db.getSteps(date(2020, Calendar.FEBRUARY, 1),
+                    date(2020, Calendar.MARCH, 31)));
+            // the days around the months are summed up by their date
+            assertEquals(1 + 2 + 4 + 8, db.getSteps(date(2020, Calendar.JANUARY, 15),
+                    date(2020, Calendar.MARCH, 15)));
+            assertEquals(1 + 2 + 4 + 8 + 16 + 32, db.getSteps(date(2020, Calendar.JANUARY, 1),
+                    date(2020, Calendar.APRIL, 30)));
+        } finally {
+            TimeZone.setDefault(timeZone);
+            db.close();
+        }
+    }
+
+    @Test
+    public void readsWhileAWriteTransactionWaits() throws Exception {
+        final Database db = Database.getInstance(RuntimeEnvironment.application);
+        final long day = date(2021, Calendar.MARCH, 1);
+        db.insertDayFromBackup(day, 100);
+        final int[] read = new int[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read[0] = db.getSteps(day - 1) + db.getCurrentSteps();
+            }
+        });
+        SQLiteDatabase sql = db.getWritableDatabase();
+        sql.beginTransaction();
+        try {
+            // the reader waits inside SQLite for the connection this transaction
+            // holds; the transaction still gets to the statements it needs
+            reader.start();
+            reader.join(500);
+            db.addToLastEntry(5);
+            assertEquals(105, db.getSteps(day));
+            sql.setTransactionSuccessful();
+        } finally {
+            sql.endTransaction();
+        }
+        reader.join();
+        assertEquals(Integer.MIN_VALUE, read[0]);
+        db.close();
+    }
+}
@@ -5,10 +5,69 @@ export interface PedometerInterface {
   distance: number;
 }
 
+export interface PedometerBatchInterface {
+  startDate: number;
+  time: number;
+  numberOfSteps: number;
+  deltas: number[];
+}
+
+export interface UpdateOptions {
+  updateInterval?: number;
+  updateSteps?: number;
+  batchInterval?: number;
+  engine?: StepEngineName;
+  filters?: string;
+}
+
+type StepEngineName = 'velocity' | 'peak';
+
+export interface PedometerSeriesInterface {
+  startDate: number;
+  resolution: SeriesResolution;
+  steps: number[];
+}
+
+export interface HistogramInterface {
+  count: number;
+  mean: number;
+  max: number;
+  buckets: number[];
+}
+
+export interface DiagnosticsInterface {
+  enabled: boolean;
+  since: number;
+  duration: number;
+  sensorEvents: number;
+  sensorEventsPerSecond: number;
+  sensorBatches: number;
+  detectorSamples: number;
+  dbWrites: number;
+  dbStatements: number;
+  broadcasts: number;
+  jsEmits: number;
+  alarmWakeups: number;
+  serviceStarts: number;
+  serviceRestarts: number;
+  batchSize: HistogramInterface;
+  detectorNsPerSample: HistogramInterface;
+  dbWriteUs: HistogramInterface;
+  droppedLogMessages: number;
+}
+
+type SeriesResolution = 'hour' | 'day' | 'week' | 'month';
+
+export interface QueryPromise<T> extends Promise<T> {
+  queryId: string | null;
+}
+
 type Callback = (error: string | null, available: boolean) => any;
 
 type Listener = (data: PedometerInterface | null) => any;
 
+type BatchListener = (data: PedometerBatchInterface) => any;
+
 type QueryCallback = (error: string | null, data: PedometerInterface | null) => any;
 
 declare const _default: {
@@ -17,10 +76,28 @@ declare const _default: {
   isFloorCountingAvailable: (callback: Callback) => void;
   isPaceAvailable: (callback: Callback) => void;
   isCadenceAvailable: (callback: Callback) => void;
-  startPedometerUpdatesFromDate: (date: number, listener: Listener) => void;
-  queryPedometerDataBetweenDates: (startDate: number, endDate: number, callback: QueryCallback) => void;
+  startPedometerUpdatesFromDate: (
+    date: number,
+    listener: Listener | BatchListener,
+    options?: UpdateOptions
+  ) => Promise<void>;
+  queryPedometerDataBetweenDates: (
+    startDate: number,
+    endDate: number,
+    callback?: QueryCallback
+  ) => QueryPromise<PedometerInterface>;
+  querySeriesBetweenDates: (
+    startDate: number,
+    endDate: number,
+    resolution: SeriesResolution
+  ) => QueryPromise<PedometerSeriesInterface>;
+  cancelQuery: (query: QueryPromise<any>) => void;
   stopPedometerUpdates: () => void;
-  tryAThing: (callback: Callback) => void;
+  setDiagnosticsEnabled: (enabled: boolean) => void;
+  getDiagnostics: () => Promise<DiagnosticsInterface | null>;
+  setTracing: (enabled: boolean) => void;
+  setTraceRecording: (enabled: boolean) => void;
+  getTraceFiles: () => Promise<string[]>;
 };
 
 export default _default;
@@ -1,11 +1,13 @@
 'use strict';
 
-import { NativeEventEmitter, NativeModules } from 'react-native';
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
 
 const { BMDPedometer } = NativeModules;
 
 const PedometerEmitter = new NativeEventEmitter(BMDPedometer);
 
+let queryCounter = 0;
+
 export default {
   /**
    * check availability of step counter
@@ -44,30 +46,129 @@ export default {
 
   /**
    * start pedometer
+   * options (android only):
+   *   updateInterval: minimum time between two updates in ms
+   *   updateSteps: minimum number of new steps between two updates
+   *   batchInterval: if > 0, updates are collected for this many ms and the
+   *     listener receives one batch of deltas instead; the first record has
+   *     delta 0, its numberOfSteps is the baseline for the following deltas
+   *   engine, filters: the step detection without a step counter
+   * returns a Promise, on android rejected with the code E_INVALID_OPTIONS
+   * for an unknown engine or filters it cannot work with
    */
-  startPedometerUpdatesFromDate: (date, listener) => {
-    PedometerEmitter.addListener('pedometerDataDidUpdate', listener);
+  startPedometerUpdatesFromDate: (date, listener, options) => {
+    let subscription;
+    if (Platform.OS === 'android' && options && options.batchInterval > 0) {
+      subscription = PedometerEmitter.addListener('pedometerDataDidUpdateBatch', listener);
+    } else {
+      subscription = PedometerEmitter.addListener('pedometerDataDidUpdate', listener);
+    }
+    if (Platform.OS === 'android') {
+      return BMDPedometer.startPedometerUpdatesFromDate(date, options || {}).catch(error => {
+        subscription.remove();
+        throw error;
+      });
+    }
     BMDPedometer.startPedometerUpdatesFromDate(date);
+    return Promise.resolve();
   },
 
   /**
    * query pedometer
+   * returns a Promise, the callback is optional; on android the query can be
+   * cancelled by passing the returned Promise to cancelQuery
    */
   queryPedometerDataBetweenDates: (startDate, endDate, callback) => {
-    BMDPedometer.queryPedometerDataBetweenDates(startDate, endDate, callback);
+    let promise;
+    let queryId = null;
+    if (Platform.OS === 'android') {
+      queryId = String(++queryCounter);
+      promise = BMDPedometer.queryPedometerDataBetweenDates(startDate, endDate, queryId);
+    } else {
+      promise = new Promise((resolve, reject) => {
+        BMDPedometer.queryPedometerDataBetweenDates(startDate, endDate, (error, data) =>
+          error ? reject(new Error(error)) : resolve(data)
+        );
+      });
+    }
+    if (callback) {
+      promise = promise.then(
+        data => callback(null, data),
+        error => callback(error.message, null)
+      );
+    }
+    promise.queryId = queryId;
+    return promise;
+  },
+
+  /**
+   * query steps per 'hour', 'day', 'week' or 'month' from startDate to endDate in one call
+   * (android only), returns a Promise; hours are only available for the time
+   * steps were recorded per minute
+   */
+  querySeriesBetweenDates: (startDate, endDate, resolution) => {
+    const queryId = String(++queryCounter);
+    const promise = BMDPedometer.querySeriesBetweenDates(startDate, endDate, resolution, queryId);
+    promise.queryId = queryId;
+    return promise;
+  },
+
+  /**
+   * cancel a query started with queryPedometerDataBetweenDates or
+   * querySeriesBetweenDates, its Promise
+   * is rejected (android only)
+   */
+  cancelQuery: query => {
+    if (Platform.OS === 'android' && query && query.queryId) {
+      BMDPedometer.cancelQuery(query.queryId);
+    }
   },
 
   /**
    * stop pedometer
    */
   stopPedometerUpdates: () => {
-    PedometerEmitter.removeListener('pedometerDataDidUpdate');
+    PedometerEmitter.removeAllListeners('pedometerDataDidUpdate');
+    PedometerEmitter.removeAllListeners('pedometerDataDidUpdateBatch');
     BMDPedometer.stopPedometerUpdates();
   },
+
+  /**
+   * collect diagnostics of the native side (android only), starts over
+   * with all values at 0 whenever it is enabled
+   */
+  setDiagnosticsEnabled: enabled => {
+    if (Platform.OS === 'android') {
+      BMDPedometer.setDiagnosticsEnabled(enabled);
+    }
+  },
+
+  /**
+   * log the decisions of the native side to logcat in release builds too
+   * (android only), stays on until disabled again
+   */
+  setTracing: enabled => {
+    if (Platform.OS === 'android') {
+      BMDPedometer.setTracing(enabled);
+    }
+  },
+
   /**
-   * try something
+   * record the raw sensor events to a new trace file until disabled again (android only)
    */
-  tryAThing: callback => {
-    BMDPedometer.tryAThing(callback);
+  setTraceRecording: enabled => {
+    if (Platform.OS === 'android') {
+      BMDPedometer.setTraceRecording(enabled);
+    }
   },
+
+  /**
+   * paths of the recorded sensor trace files (android only), returns a Promise
+   */
+  getTraceFiles: () => (Platform.OS === 'android' ? BMDPedometer.getTraceFiles() : Promise.resolve([])),
+
+  /**
+   * snapshot of the collected diagnostics (android only), returns a Promise
+   */
+  getDiagnostics: () => (Platform.OS === 'android' ? BMDPedometer.getDiagnostics() : Promise.resolve(null)),
 };